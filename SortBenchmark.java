@@ -0,0 +1,173 @@
+// File : SortBenchmark.java
+// Author : Yichuan Yin, yiny@wwu.edu
+// Description : Benchmark harness for SortCompare. Sorts seeded arrays of
+// several input distributions (uniform over the full int range, narrow with
+// many duplicates as in SortCompare, sorted, reverse sorted, organ pipe and
+// nearly sorted with k swaps) with every sort engine and reports throughput,
+// time per element and allocation per sort of the uncounted sorts, with
+// allocation taken from the thread allocation counter (so "n/a" for the
+// parallel engines, which allocate on fork/join workers), next to
+// comparisons and moves per element of one extra counted sort.
+//
+// usage : java SortBenchmark [options]
+// options : --seed=N --sizes=N,N,... --engines=m,q,... --distributions=uniform,...
+//           --swaps=K --max-quadratic=N --warmup=N --iterations=N
+
+import java.util.*;                 // for Random & Arrays
+import java.lang.management.*;      // for ManagementFactory
+
+public class SortBenchmark {
+
+   // default array sizes benchmarked (10 to 10^6, up to 10^8 with --sizes)
+   public static final String DEFAULT_SIZES = "10,100,1000,10000,100000,1000000";
+   // default sort engines benchmarked, named as in SortCompare.sortArray
+   // ("ms" is the original recursive mergeSort, the streaming sorter "s"
+   // can be picked with --engines)
+   public static final String DEFAULT_ENGINES = "ms,m,mb,mp,i,q,qi,qp,r,rp,r16,auto";
+   // default input distributions benchmarked
+   public static final String DEFAULT_DISTRIBUTIONS = "uniform,narrow,sorted,reverse,organ,nearly";
+   // default largest size run for the engines quadratic on some inputs
+   public static final String DEFAULT_MAX_QUADRATIC = "20000";
+   // engines that sort on fork/join workers, whose allocation the
+   // calling thread's counter does not see
+   public static final List<String> PARALLEL_ENGINES = Arrays.asList("mp", "qp", "rp");
+   // thread bean of the JVM, counts bytes allocated per thread
+   private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+   // a sort engine benchmarked, sorts the array in place counting the run
+   // in the given stats, or counting nothing given null
+   public interface Engine {
+      void sort(int[] array, SortCompare.SortStats stats);
+   }
+
+   // main routine
+   public static void main(String[] args) {
+      int warmup = Integer.parseInt(TakeoffQueue.option(args, "warmup", "3"));
+      int iterations = Integer.parseInt(TakeoffQueue.option(args, "iterations", "5"));
+      long seed = Long.parseLong(TakeoffQueue.option(args, "seed", "1"));
+      int swaps = Integer.parseInt(TakeoffQueue.option(args, "swaps", "10"));
+      int maxQuadratic = Integer.parseInt(TakeoffQueue.option(args, "max-quadratic", DEFAULT_MAX_QUADRATIC));
+      String[] engines = TakeoffQueue.option(args, "engines", DEFAULT_ENGINES).split(",");
+      String[] distributions = TakeoffQueue.option(args, "distributions", DEFAULT_DISTRIBUTIONS).split(",");
+
+      System.out.printf("%-6s %-8s %-10s %14s %12s %14s %10s %10s%n",
+         "engine", "input", "size", "sorts/s", "ns/entry", "B/sort", "cmp/entry", "mov/entry");
+      for (String size : TakeoffQueue.option(args, "sizes", DEFAULT_SIZES).split(",")) {
+         int n = Integer.parseInt(size);
+         for (String distribution : distributions) {
+            int[] input = generate(distribution, n, swaps, seed);
+            for (String engine : engines) {
+               if (n > maxQuadratic && (engine.equals("i") || engine.equals("q"))) {
+                  continue;
+               }
+               measure(engine, distribution, input, warmup, iterations);
+            }
+         }
+      }
+   }
+
+   // return a seeded array of n entries of the given distribution: "uniform"
+   // over the full int range, "narrow" as filled by SortCompare (sum of two
+   // values in [0, INT_RANGE] shifted by INT_RANGE), "sorted", "reverse",
+   // "organ" (ascending then descending) or "nearly" (sorted, then the given
+   // number of random pairs of entries swapped)
+   public static int[] generate(String distribution, int n, int swaps, long seed) {
+      Random rand = new Random(seed);
+      int[] array = new int[n];
+      for (int i = 0; i < n; i++) {
+         switch (distribution) {
+            case "uniform" :  array[i] = rand.nextInt();
+                              break;
+            case "narrow" :   array[i] = rand.nextInt(SortCompare.INT_RANGE + 1)
+                                 + rand.nextInt(SortCompare.INT_RANGE + 1) - SortCompare.INT_RANGE;
+                              break;
+            case "sorted" :
+            case "nearly" :   array[i] = i;
+                              break;
+            case "reverse" :  array[i] = n - i;
+                              break;
+            case "organ" :    array[i] = Math.min(i, n - 1 - i);
+                              break;
+            default :         throw new IllegalArgumentException("unknown distribution: " + distribution);
+         }
+      }
+      if (distribution.equals("nearly") && n > 1) {
+         for (int k = 0; k < swaps; k++) {
+            SortCompare.swapElement(array, rand.nextInt(n), rand.nextInt(n));
+         }
+      }
+      return array;
+   }
+
+   // return the sort engine with the given name as in SortCompare.sortArray
+   public static Engine engine(String name) {
+      switch (name) {
+         case "ms" :    return (array, stats) -> System.arraycopy(SortCompare.mergeSort(array, stats), 0,
+                           array, 0, array.length);
+         case "m" :     return (array, stats) -> SortCompare.mergeSortInPlace(array, SortCompare.MERGE_CUTOFF, stats);
+         case "mb" :    return (array, stats) -> SortCompare.bottomUpMergeSort(array, SortCompare.MERGE_CUTOFF, stats);
+         case "mp" :    return SortCompare::parallelMergeSort;
+         case "i" :     return SortCompare::insertionSort;
+         case "q" :     return SortCompare::quickSort;
+         case "qi" :    return SortCompare::introSort;
+         case "qp" :    return SortCompare::parallelQuickSort;
+         case "r" :     return SortCompare::radixSort;
+         case "rp" :    return SortCompare::parallelRadixSort;
+         case "r16" :   return (array, stats) -> SortCompare.radixSort(array, new int[array.length], 16, stats);
+         case "auto" :  return SortCompare::autoSort;
+         case "s" :     return (array, stats) -> System.arraycopy(SortCompare.streamSort(array, stats), 0,
+                           array, 0, array.length);
+         default :      throw new IllegalArgumentException("unknown engine: " + name);
+      }
+   }
+
+   // sort copies of the input with the engine uncounted for the warmup
+   // iterations, then for the measured iterations, and once more counted,
+   // print mean throughput, time per entry and bytes allocated per sort of
+   // the measured sorts and comparisons and moves per entry of the counted
+   // one, the copy of the input made before each sort is not measured
+   public static void measure(String name, String distribution, int[] input, int warmup,
+         int iterations) {
+      Engine engine = engine(name);
+      int[] array = new int[input.length];
+      long nanos = 0;
+      long bytes = 0;
+      SortCompare.SortStats stats = new SortCompare.SortStats();
+      try {
+         for (int i = 0; i < warmup + iterations; i++) {
+            System.arraycopy(input, 0, array, 0, input.length);
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            engine.sort(array, null);
+            long end = System.nanoTime();
+            long endBytes = allocatedBytes();
+            if (i >= warmup) {
+               nanos += end - start;
+               bytes += endBytes - startBytes;
+            }
+         }
+         System.arraycopy(input, 0, array, 0, input.length);
+         engine.sort(array, stats);
+      } catch (StackOverflowError e) {
+         System.out.printf("%-6s %-8s %-10d %s%n", name, distribution, input.length, "stack overflow");
+         return;
+      }
+      double entries = Math.max((double)iterations * input.length, 1);
+      double counted = Math.max(input.length, 1);
+      String allocated = PARALLEL_ENGINES.contains(name) ? "n/a"
+         : String.format("%.1f", (double)bytes / iterations);
+      System.out.printf("%-6s %-8s %-10d %14.1f %12.2f %14s %10.2f %10.2f%n", name, distribution,
+         input.length, iterations / (Math.max(nanos, 1) / 1e9), nanos / entries,
+         allocated, stats.comparisons / counted, stats.moves / counted);
+   }
+
+   // return bytes allocated so far by the current thread, 0 if the JVM
+   // does not count them, the bean is looked up once so that reading the
+   // counter does not itself allocate
+   public static long allocatedBytes() {
+      if (THREADS instanceof com.sun.management.ThreadMXBean) {
+         return ((com.sun.management.ThreadMXBean)THREADS).getCurrentThreadAllocatedBytes();
+      }
+      return 0;
+   }
+}
@@ -5,31 +5,95 @@
 // displays the number of comparisons between each array entries when sorting an
 // array of size specified by the user. (Developed from ideas and pseudocode
 // presented in class by Filip Jagozinski)
+//
+// usage : java SortCompare
+//         java SortCompare <input> <output> [memory MB] [m|q|r]
+// given files, sorts a binary file of little-endian ints too large for
+// memory with an external merge sort and writes the sorted ints to output
 
-import java.util.*;  // for Random, Scanner, Arrays, Queue
+import java.util.*;                 // for Random, Scanner, Arrays
+import java.util.concurrent.*;      // for ForkJoinPool, RecursiveAction
+import java.io.*;                   // for File, RandomAccessFile
+import java.nio.*;                  // for MappedByteBuffer, ByteOrder
+import java.nio.channels.*;         // for FileChannel
 
 public class SortCompare {
    
-   // base of enumeration for radix sort
-   public static final int RADIX_BASE = 10;
+   // bits per digit of radix sort (one counting pass per digit)
+   public static final int RADIX_BITS = 8;
    // max absolute value for integer in the array
    public static final int INT_RANGE = 99;
    // max length of array to be printed
    public static final int PRINT_LENGTH = 20;
+   // length of array segments insertion sorted by the single-buffer merge sorts
+   public static final int MERGE_CUTOFF = 16;
+   // length of array segments insertion sorted by introsort
+   public static final int QUICK_CUTOFF = 16;
+   // length of array segments above which introsort picks a ninther pivot
+   public static final int NINTHER_CUTOFF = 40;
+   // length of array segments above which the parallel sorts fork subtasks
+   public static final int PARALLEL_THRESHOLD = 1 << 13;
+   // default memory budget of the external sort in megabytes
+   public static final int EXTERNAL_MEMORY_MB = 64;
+   // smallest read-ahead window per run of the external merge in bytes
+   public static final int MIN_READ_AHEAD = 1 << 16;
+   // largest window of a file mapped at once in bytes
+   public static final int MAP_WINDOW = 1 << 30;
+   // smallest memory budget of the external sort in bytes: a read window
+   // and a write buffer of MIN_READ_AHEAD bytes each, and as much again for
+   // the chunk and its scratch buffer
+   public static final int MIN_EXTERNAL_MEMORY = 4 * MIN_READ_AHEAD;
+   // length of arrays the adaptive sort insertion sorts outright
+   public static final int AUTO_INSERTION_LIMIT = 32;
+   // mean natural run length above which the adaptive sort merges runs
+   public static final int NATURAL_RUN_LENGTH = 32;
+   // entries sampled by the adaptive sort to estimate the duplicate ratio
+   public static final int AUTO_SAMPLE = 64;
+   // estimated duplicate ratio above which the adaptive sort uses introsort
+   public static final double AUTO_DUPLICATE_RATIO = 0.5;
+   // length of arrays above which the adaptive sort radix sorts wide ranges
+   public static final int AUTO_RADIX_LIMIT = 1 << 9;
+   // entries buffered and insertion sorted into one run by the streaming sorter
+   public static final int STREAM_RUN_LENGTH = 64;
+   // runs of a size tier the streaming sorter merges into one run of the next tier
+   public static final int STREAM_TIER_FANOUT = 4;
    
-   // array to hold count of comparisons performed for each sort
-   public static final int[] COMPARISON_COUNT = {0,0,0,0};
-   // array index for merge sort comparison count
-   public static final int MERGE_SORT = 0;
-   // array index for quick sort comparison count
-   public static final int INSERTION_SORT = 1;
-   // array index for insertion sort comparison count
-   public static final int QUICK_SORT = 2;
-   // array index for radix sort comparison count
-   public static final int RADIX_SORT = 3;
+   // counters of a single sort run: comparisons between entries, entries
+   // moved (written into the array or a buffer, a swap moves two), bytes of
+   // auxiliary arrays allocated, passes over the whole array and wall time,
+   // every run gets its own stats so runs on different threads never share
+   // counters, sorts given null stats count nothing
+   public static class SortStats {
+      public long comparisons;
+      public long moves;
+      public long auxBytes;
+      public long passes;
+      public long nanos;
+      
+      // add the counters of another part of the run (e.g. a fork/join
+      // subtask) to these, except wall time which covers the whole run
+      public void add(SortStats other) {
+         comparisons += other.comparisons;
+         moves += other.moves;
+         auxBytes += other.auxBytes;
+         passes += other.passes;
+      }
+   }
    
    // main routine
-   public static void main(String[] args) {
+   public static void main(String[] args) throws IOException {
+      
+      // sort a binary file given on the command line externally
+      if (args.length >= 2) {
+         long memoryBytes = (args.length > 2 ? Long.parseLong(args[2]) : EXTERNAL_MEMORY_MB) << 20;
+         String sortMethod = args.length > 3 ? args[3] : "r";
+         SortStats stats = new SortStats();
+         long mergeComparisons = externalSort(new File(args[0]), new File(args[1]), memoryBytes,
+            sortMethod, stats);
+         printStats(stats);
+         System.out.println("Num Merge Comparisons: " + mergeComparisons);
+         return;
+      }
       
       // print the header
       System.out.println("Input Params");
@@ -41,7 +105,7 @@ public class SortCompare {
       int numOfEntries = input.nextInt();    
       
       // prompt the user for the sorting method(s) desired
-      System.out.print("Which sort [m,i,q,r,all]? ");
+      System.out.print("Which sort [m,mb,mp,i,q,qi,qp,r,rp,r16,auto,s,all]? ");
       String sortMethod = input.next();
       System.out.println();
       
@@ -59,19 +123,39 @@ public class SortCompare {
    // sort a copy of the deep copy array using merge sort, insertion sort,
    // quick sort, or radix sort depending on the given sort method,
    // print the unsorted and sorted array if it's not empty or longer than PRINT_LENGTH,
-   // display the number of comparisons performed for each sort method
+   // display the comparisons and other counters of the sort run
    public static void sortArray(int[] arrayDeepCopy, String sortMethod) {
       
       int[] array = Arrays.copyOf(arrayDeepCopy, arrayDeepCopy.length);
       
       boolean isPrintable = array.length > 0 && array.length < PRINT_LENGTH;
       
+      SortStats stats = new SortStats();
+      
       switch (sortMethod) {
          case "m":   System.out.println("merge sort");
                      System.out.println("==========");
                      printArray(isPrintable, "Unsorted", array);
-                     array = mergeSort(array);
-                     System.out.println("Num Comparisons: " + COMPARISON_COUNT[MERGE_SORT]);
+                     mergeSortInPlace(array, MERGE_CUTOFF, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "mb":  System.out.println("bottom-up merge sort");
+                     System.out.println("====================");
+                     printArray(isPrintable, "Unsorted", array);
+                     bottomUpMergeSort(array, MERGE_CUTOFF, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "mp":  System.out.println("parallel merge sort");
+                     System.out.println("===================");
+                     printArray(isPrintable, "Unsorted", array);
+                     parallelMergeSort(array, stats);
+                     printStats(stats);
                      printArray(isPrintable, "Sorted", array);
                      System.out.println();
                      break;
@@ -79,8 +163,8 @@ public class SortCompare {
          case "i":   System.out.println("insertion sort");
                      System.out.println("==============");
                      printArray(isPrintable, "Unsorted", array);
-                     insertionSort(array);
-                     System.out.println("Num Comparisons: " + COMPARISON_COUNT[INSERTION_SORT]);
+                     insertionSort(array, stats);
+                     printStats(stats);
                      printArray(isPrintable, "Sorted", array);
                      System.out.println();
                      break;
@@ -88,8 +172,26 @@ public class SortCompare {
          case "q":   System.out.println("quick sort");
                      System.out.println("==========");
                      printArray(isPrintable, "Unsorted", array);
-                     quickSort(array);
-                     System.out.println("Num Comparisons: " + COMPARISON_COUNT[QUICK_SORT]);
+                     quickSort(array, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "qi":  System.out.println("introsort quick sort");
+                     System.out.println("====================");
+                     printArray(isPrintable, "Unsorted", array);
+                     introSort(array, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "qp":  System.out.println("parallel quick sort");
+                     System.out.println("===================");
+                     printArray(isPrintable, "Unsorted", array);
+                     parallelQuickSort(array, stats);
+                     printStats(stats);
                      printArray(isPrintable, "Sorted", array);
                      System.out.println();
                      break;
@@ -97,16 +199,60 @@ public class SortCompare {
          case "r":   System.out.println("radix sort");
                      System.out.println("==========");
                      printArray(isPrintable, "Unsorted", array);
-                     radixSort(array);
-                     System.out.println("Num Comparisons: " + COMPARISON_COUNT[RADIX_SORT]);
+                     radixSort(array, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "rp":  System.out.println("parallel radix sort");
+                     System.out.println("===================");
+                     printArray(isPrintable, "Unsorted", array);
+                     parallelRadixSort(array, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "r16": System.out.println("16-bit radix sort");
+                     System.out.println("=================");
+                     printArray(isPrintable, "Unsorted", array);
+                     radixSort(array, newBuffer(array.length, stats), 16, stats);
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "auto": System.out.println("adaptive sort");
+                     System.out.println("=============");
+                     printArray(isPrintable, "Unsorted", array);
+                     System.out.println("Sort Picked: " + autoSort(array, stats));
+                     printStats(stats);
+                     printArray(isPrintable, "Sorted", array);
+                     System.out.println();
+                     break;
+         
+         case "s":   System.out.println("streaming sort");
+                     System.out.println("==============");
+                     printArray(isPrintable, "Unsorted", array);
+                     array = streamSort(array, stats);
+                     printStats(stats);
                      printArray(isPrintable, "Sorted", array);
                      System.out.println();
                      break;
          
          case "all": sortArray(arrayDeepCopy, "m");
+                     sortArray(arrayDeepCopy, "mb");
+                     sortArray(arrayDeepCopy, "mp");
                      sortArray(arrayDeepCopy, "i");
                      sortArray(arrayDeepCopy, "q");
+                     sortArray(arrayDeepCopy, "qi");
+                     sortArray(arrayDeepCopy, "qp");
                      sortArray(arrayDeepCopy, "r");
+                     sortArray(arrayDeepCopy, "rp");
+                     sortArray(arrayDeepCopy, "r16");
+                     sortArray(arrayDeepCopy, "auto");
+                     sortArray(arrayDeepCopy, "s");
                      break;
          
          default :   break;
@@ -121,20 +267,46 @@ public class SortCompare {
    // this is not an in-situ sort, thus returning a pointer to the sorted array,
    // the original given array remain unmodified
    public static int[] mergeSort(int[] array) {
+      return mergeSort(array, null);
+   }
+   
+   // merge sort the array recursively as above, counting the run in stats
+   public static int[] mergeSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
+      int[] resultArray = mergeSortCopies(array, stats);
+      countPasses(stats, mergeLevels(array.length, 1));
+      stopTime(stats, start);
+      return resultArray;
+   }
+   
+   // merge sort copies of both halves of the array and merge them into a new
+   // array, return the sorted array
+   private static int[] mergeSortCopies(int[] array, SortStats stats) {
          if (array.length == 1 || array.length == 0) {
             return array;
          } else {
+            countAllocation(stats, array.length);
+            countMoves(stats, array.length);
             return mergeTwoSortedArray(
-               mergeSort(Arrays.copyOfRange(array, 0, array.length / 2)), 
-               mergeSort(Arrays.copyOfRange(array, array.length / 2, array.length)));
+               mergeSortCopies(Arrays.copyOfRange(array, 0, array.length / 2), stats),
+               mergeSortCopies(Arrays.copyOfRange(array, array.length / 2, array.length), stats),
+               stats);
          }
    }
    
    // merge two sorted array into a single sorted array, return the result array
    public static int[] mergeTwoSortedArray(int[] array1, int[] array2) {
+      return mergeTwoSortedArray(array1, array2, null);
+   }
+   
+   // merge two sorted array into a single sorted array counting the merge in
+   // stats, return the result array
+   public static int[] mergeTwoSortedArray(int[] array1, int[] array2, SortStats stats) {
       
       // new array to hold the sorted elements from array1 and array2
       int[] resultArray = new int[array1.length + array2.length];
+      countAllocation(stats, resultArray.length);
+      countMoves(stats, resultArray.length);
       
       // indices for array1 and array2, respectively
       int i = 0;
@@ -153,7 +325,7 @@ public class SortCompare {
                resultArray[i + j] = array2[j];
                j++;
             }
-            COMPARISON_COUNT[MERGE_SORT]++;
+            countComparisons(stats, 1);
          }
          
          // add any unused elements from array1 or array2 to the result array
@@ -169,43 +341,411 @@ public class SortCompare {
       return resultArray;
    }
    
+   // merge sort the array in place using one auxiliary buffer, recursive calls
+   // alternate the roles of the array and the buffer so every merge writes
+   // straight into its destination without copying halves or allocating,
+   // segments of up to MERGE_CUTOFF entries are insertion sorted
+   public static void mergeSortInPlace(int[] array) {
+      mergeSortInPlace(array, MERGE_CUTOFF, null);
+   }
+   
+   // merge sort the array in place, insertion sorting segments of up to
+   // cutoff entries (a cutoff of 1 merges down to single entries)
+   public static void mergeSortInPlace(int[] array, int cutoff) {
+      mergeSortInPlace(array, cutoff, null);
+   }
+   
+   // merge sort the array in place as above, counting the run in stats
+   public static void mergeSortInPlace(int[] array, int cutoff, SortStats stats) {
+      mergeSortInPlace(array, array.length, newBuffer(array.length, stats), cutoff, stats);
+   }
+   
+   // merge sort the first length entries of the array in place using the
+   // given buffer (at least length long) as the auxiliary buffer, counting
+   // the run in stats
+   public static void mergeSortInPlace(int[] array, int length, int[] buffer, int cutoff, SortStats stats) {
+      long start = startTime(stats);
+      cutoff = Math.max(cutoff, 1);
+      System.arraycopy(array, 0, buffer, 0, length);
+      countMoves(stats, length);
+      mergeSortInPlace(buffer, array, 0, length, cutoff, stats);
+      countPasses(stats, mergeLevels(length, cutoff) + 1);
+      stopTime(stats, start);
+   }
+   
+   // sort source[lo, hi) into destination[lo, hi), both hold the same entries
+   // on entry, source is used as scratch space
+   private static void mergeSortInPlace(int[] source, int[] destination, int lo, int hi, int cutoff,
+         SortStats stats) {
+      if (hi - lo <= cutoff) {
+         insertionSortRun(destination, lo, hi, stats);
+         return;
+      }
+      int mid = (lo + hi) >>> 1;
+      // sort each half of the destination into the source, then merge back
+      mergeSortInPlace(destination, source, lo, mid, cutoff, stats);
+      mergeSortInPlace(destination, source, mid, hi, cutoff, stats);
+      
+      // halves already in order, copy them across without merging
+      countComparisons(stats, 1);
+      if (source[mid - 1] <= source[mid]) {
+         System.arraycopy(source, lo, destination, lo, hi - lo);
+         countMoves(stats, hi - lo);
+         return;
+      }
+      merge(source, destination, lo, mid, hi, stats);
+   }
+   
+   // return how many times the top-down merge sorts halve n entries before
+   // segments are at most cutoff long, i.e. the number of merge levels
+   private static int mergeLevels(int n, int cutoff) {
+      int levels = 0;
+      for (int length = n; length > cutoff; length -= length / 2) {
+         levels++;
+      }
+      return levels;
+   }
+   
+   // merge sort the array bottom-up (without recursion) using one auxiliary
+   // buffer, runs of MERGE_CUTOFF entries are insertion sorted first, then
+   // runs are merged pairwise back and forth between array and buffer
+   public static void bottomUpMergeSort(int[] array) {
+      bottomUpMergeSort(array, MERGE_CUTOFF, null);
+   }
+   
+   // merge sort the array bottom-up, insertion sorting initial runs of
+   // cutoff entries (a cutoff of 1 starts from single entries)
+   public static void bottomUpMergeSort(int[] array, int cutoff) {
+      bottomUpMergeSort(array, cutoff, null);
+   }
+   
+   // merge sort the array bottom-up as above, counting the run in stats
+   public static void bottomUpMergeSort(int[] array, int cutoff, SortStats stats) {
+      long start = startTime(stats);
+      int n = array.length;
+      int run = Math.max(cutoff, 1);
+      for (int lo = 0; lo < n; lo += run) {
+         insertionSortRun(array, lo, Math.min(lo + run, n), stats);
+      }
+      countPasses(stats, 1);
+      
+      int[] source = array;
+      int[] destination = new int[n];
+      countAllocation(stats, n);
+      for (; run < n; run *= 2) {
+         for (int lo = 0; lo < n; lo += 2 * run) {
+            int mid = Math.min(lo + run, n);
+            int hi = Math.min(lo + 2 * run, n);
+            merge(source, destination, lo, mid, hi, stats);
+         }
+         countPasses(stats, 1);
+         int[] temp = source;
+         source = destination;
+         destination = temp;
+      }
+      
+      // sorted entries ended up in the buffer, copy them back
+      if (source != array) {
+         System.arraycopy(source, 0, array, 0, n);
+         countMoves(stats, n);
+      }
+      stopTime(stats, start);
+   }
+   
+   // merge the sorted runs source[lo, mid) and source[mid, hi) into
+   // destination[lo, hi)
+   public static void merge(int[] source, int[] destination, int lo, int mid, int hi) {
+      merge(source, destination, lo, mid, hi, null);
+   }
+   
+   // merge the sorted runs source[lo, mid) and source[mid, hi) into
+   // destination[lo, hi), counting comparisons between entries of the runs
+   // and entries moved in stats
+   public static void merge(int[] source, int[] destination, int lo, int mid, int hi,
+         SortStats stats) {
+      int i = lo;
+      int j = mid;
+      int k = lo;
+      while (i < mid && j < hi) {
+         if (source[i] <= source[j]) {
+            destination[k++] = source[i++];
+         } else {
+            destination[k++] = source[j++];
+         }
+         countComparisons(stats, 1);
+      }
+      // add any unused entries from either run
+      System.arraycopy(source, i, destination, k, mid - i);
+      System.arraycopy(source, j, destination, k + mid - i, hi - j);
+      countMoves(stats, hi - lo);
+   }
+   
+   // merge sort the array in parallel on the common fork/join pool, the two
+   // halves of every segment longer than PARALLEL_THRESHOLD are sorted as
+   // separate tasks and merged by splitting the larger run at its middle and
+   // binary searching the split point in the other run
+   public static void parallelMergeSort(int[] array) {
+      parallelMergeSort(array, null);
+   }
+   
+   // merge sort the array in parallel as above, every task counts into its
+   // own stats which are added up at join, the parallel merge itself is not
+   // counted, instead the comparisons the sequential merge would make are
+   // worked out from the runs, so stats match those of mergeSortInPlace
+   public static void parallelMergeSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
+      int[] buffer = Arrays.copyOf(array, array.length);
+      countAllocation(stats, array.length);
+      countMoves(stats, array.length);
+      MergeSortTask task = new MergeSortTask(buffer, array, 0, array.length, MERGE_CUTOFF, stats != null);
+      ForkJoinPool.commonPool().invoke(task);
+      if (stats != null) {
+         stats.add(task.stats);
+      }
+      countPasses(stats, mergeLevels(array.length, MERGE_CUTOFF) + 1);
+      stopTime(stats, start);
+   }
+   
+   // task sorting source[lo, hi) into destination[lo, hi) as in mergeSortInPlace
+   private static class MergeSortTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      
+      private final int[] source;
+      private final int[] destination;
+      private final int lo;
+      private final int hi;
+      private final int cutoff;
+      private final SortStats stats;      // null when not counted
+      
+      // construct a task given both arrays, the segment bounds, cutoff and
+      // whether to count the work done
+      public MergeSortTask(int[] source, int[] destination, int lo, int hi, int cutoff,
+            boolean counted) {
+         this.source = source;
+         this.destination = destination;
+         this.lo = lo;
+         this.hi = hi;
+         this.cutoff = cutoff;
+         this.stats = counted ? new SortStats() : null;
+      }
+      
+      // sort the segment, forking both halves if it is long enough
+      protected void compute() {
+         if (hi - lo <= PARALLEL_THRESHOLD) {
+            mergeSortInPlace(source, destination, lo, hi, cutoff, stats);
+            return;
+         }
+         int mid = (lo + hi) >>> 1;
+         MergeSortTask left = new MergeSortTask(destination, source, lo, mid, cutoff, stats != null);
+         MergeSortTask right = new MergeSortTask(destination, source, mid, hi, cutoff, stats != null);
+         invokeAll(left, right);
+         if (stats != null) {
+            stats.add(left.stats);
+            stats.add(right.stats);
+         }
+         
+         // halves already in order, copy them across without merging
+         countComparisons(stats, 1);
+         countMoves(stats, hi - lo);
+         if (source[mid - 1] <= source[mid]) {
+            System.arraycopy(source, lo, destination, lo, hi - lo);
+            return;
+         }
+         new MergeTask(source, destination, lo, mid, mid, hi, lo).invoke();
+         if (stats != null) {
+            countComparisons(stats, mergeComparisons(source, lo, mid, hi));
+         }
+      }
+   }
+   
+   // task merging the sorted runs source[lo1, hi1) and source[lo2, hi2) into
+   // destination starting at index at
+   private static class MergeTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      
+      private final int[] source;
+      private final int[] destination;
+      private final int lo1;
+      private final int hi1;
+      private final int lo2;
+      private final int hi2;
+      private final int at;
+      
+      // construct a task given both arrays, the bounds of both runs and
+      // the first destination index
+      public MergeTask(int[] source, int[] destination, int lo1, int hi1, int lo2, int hi2, int at) {
+         this.source = source;
+         this.destination = destination;
+         this.lo1 = lo1;
+         this.hi1 = hi1;
+         this.lo2 = lo2;
+         this.hi2 = hi2;
+         this.at = at;
+      }
+      
+      // merge the runs, splitting them into two independent merges if long
+      // enough: the middle entry of the longer run goes to its final place,
+      // entries before it (and those of the other run that are smaller, or
+      // not larger when they come from the first run) are merged on its left
+      protected void compute() {
+         int n1 = hi1 - lo1;
+         int n2 = hi2 - lo2;
+         if (n1 + n2 <= PARALLEL_THRESHOLD) {
+            mergeRuns(source, destination, lo1, hi1, lo2, hi2, at);
+            return;
+         }
+         int split1;
+         int split2;
+         int pivot;
+         if (n1 >= n2) {
+            split1 = (lo1 + hi1) >>> 1;
+            split2 = lowerBound(source, lo2, hi2, source[split1]);
+            pivot = at + (split1 - lo1) + (split2 - lo2);
+            destination[pivot] = source[split1];
+            invokeAll(new MergeTask(source, destination, lo1, split1, lo2, split2, at),
+               new MergeTask(source, destination, split1 + 1, hi1, split2, hi2, pivot + 1));
+         } else {
+            split2 = (lo2 + hi2) >>> 1;
+            split1 = upperBound(source, lo1, hi1, source[split2]);
+            pivot = at + (split1 - lo1) + (split2 - lo2);
+            destination[pivot] = source[split2];
+            invokeAll(new MergeTask(source, destination, lo1, split1, lo2, split2, at),
+               new MergeTask(source, destination, split1, hi1, split2 + 1, hi2, pivot + 1));
+         }
+      }
+   }
+   
+   // merge the sorted runs source[lo1, hi1) and source[lo2, hi2) into
+   // destination starting at index at without counting comparisons, entries
+   // of the first run go first when equal
+   private static void mergeRuns(int[] source, int[] destination, int lo1, int hi1, int lo2, int hi2,
+         int at) {
+      int i = lo1;
+      int j = lo2;
+      int k = at;
+      while (i < hi1 && j < hi2) {
+         destination[k++] = source[i] <= source[j] ? source[i++] : source[j++];
+      }
+      System.arraycopy(source, i, destination, k, hi1 - i);
+      System.arraycopy(source, j, destination, k + hi1 - i, hi2 - j);
+   }
+   
+   // return the number of comparisons merge would make on the sorted runs
+   // source[lo, mid) and source[mid, hi): one per entry placed before either
+   // run runs out, i.e. all entries except the tail of the run left over
+   private static long mergeComparisons(int[] source, int lo, int mid, int hi) {
+      if (source[mid - 1] <= source[hi - 1]) {
+         // first run runs out, right entries not smaller than its last are left
+         return (hi - lo) - (hi - lowerBound(source, mid, hi, source[mid - 1]));
+      }
+      // second run runs out, left entries larger than its last are left
+      return (hi - lo) - (mid - upperBound(source, lo, mid, source[hi - 1]));
+   }
+   
+   // return index of the first entry of the sorted segment array[lo, hi)
+   // not smaller than value (hi if there is none)
+   private static int lowerBound(int[] array, int lo, int hi, int value) {
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (array[mid] < value) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   // return index of the first entry of the sorted segment array[lo, hi)
+   // larger than value (hi if there is none)
+   private static int upperBound(int[] array, int lo, int hi, int value) {
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (array[mid] <= value) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+   
+   // insertion sort the array segment [lo, hi) for the hybrid sorts, counting
+   // each comparison between entries and every entry shifted or placed
+   private static void insertionSortRun(int[] array, int lo, int hi, SortStats stats) {
+      for (int i = lo + 1; i < hi; i++) {
+         int value = array[i];
+         int j = i;
+         while (j > lo) {
+            countComparisons(stats, 1);
+            if (array[j - 1] <= value) {
+               break;
+            }
+            array[j] = array[j - 1];
+            j--;
+         }
+         array[j] = value;
+         countMoves(stats, i - j + 1);
+      }
+   }
+   
+   // insertion sort the array iteratively
+   public static void insertionSort(int[] array) {
+      insertionSort(array, null);
+   }
+   
    // insertion sort the array iteratively, increment the comparison count
    // for each comparison performed between entries of the array
-   public static void insertionSort(int[] array) {
+   public static void insertionSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
       for (int i = 1; i < array.length; i++) {
          int j = i;
          while (j > 0 && array[j - 1] > array[j]) {
             swapElement(array, j - 1, j);
+            countMoves(stats, 2);
             j--;
-            COMPARISON_COUNT[INSERTION_SORT]++;
+            countComparisons(stats, 1);
          }
-         COMPARISON_COUNT[INSERTION_SORT]++;
+         countComparisons(stats, 1);
       }       
+      stopTime(stats, start);
    }
    
    // public caller in a recursive quick sort public/private method pair,
    // enter the recursive quict sort with indices covering the whole array
    public static void quickSort(int[] array) {
-      quickSort(array, 0, array.length - 1);
+      quickSort(array, 0, array.length - 1, null);
+   }
+   
+   // quick sort the array as above, counting the run in stats
+   public static void quickSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
+      quickSort(array, 0, array.length - 1, stats);
+      stopTime(stats, start);
    }
    
    // quick sort an array recursively, p and r denote the first and last index
    // of an array segment being investigated for partition, continue to examine
    // array segments to the left and right of pivot by calling this method
    // until the array is sorted (when p and r refer to the same array entry)
-   private static void quickSort(int[] array, int p, int r) {
+   private static void quickSort(int[] array, int p, int r, SortStats stats) {
       if (p < r) {
-         int pivotIndex = partition(array, p, r);
-         quickSort(array, p, pivotIndex - 1);
-         quickSort(array, pivotIndex + 1, r);
+         int pivotIndex = partition(array, p, r, stats);
+         quickSort(array, p, pivotIndex - 1, stats);
+         quickSort(array, pivotIndex + 1, r, stats);
       }
    }
    
    // partition the array segment from index p to index r so that the elements
    // to the left of the pivot are not larger than the elements to the right of
-   // the pivot, increment the comparison count between array entries and the
-   // pivot value, return the pivot index
+   // the pivot, return the pivot index
    public static int partition(int[] array, int p, int r) {
+      return partition(array, p, r, null);
+   }
+   
+   // partition the array segment as above, increment the comparison count
+   // between array entries and the pivot value, return the pivot index
+   public static int partition(int[] array, int p, int r, SortStats stats) {
       int i = p - 1;
       // choose last element of the array segment as pivot value
       int pivotValue = array[r];
@@ -213,56 +753,1720 @@ public class SortCompare {
          if (array[j] <= pivotValue) {
             i++;
             swapElement(array, i, j);
+            countMoves(stats, 2);
          }
-         COMPARISON_COUNT[QUICK_SORT]++;
+         countComparisons(stats, 1);
       }
       swapElement(array, i + 1, r);
+      countMoves(stats, 2);
       return i + 1;
    }
    
-   // least significant digit radix sort the array iteratively,
-   // use an array of Queues for auxiliary storage
+   // introsort the array: quick sort with a median-of-three (or ninther) pivot
+   // and a 3-way partition, so runs of equal entries are finished in one pass,
+   // recursing into the smaller side and looping on the larger one so the
+   // stack stays O(log n) deep, and falling back to heapsort on segments once
+   // partitioning goes deeper than 2 log n, short segments are insertion sorted
+   public static void introSort(int[] array) {
+      introSort(array, 0, array.length - 1, depthLimit(array.length), null);
+   }
+   
+   // introsort the array as above, counting the run in stats
+   public static void introSort(int[] array, SortStats stats) {
+      introSort(array, array.length, stats);
+   }
+   
+   // introsort the first length entries of the array, counting the run in stats
+   public static void introSort(int[] array, int length, SortStats stats) {
+      long start = startTime(stats);
+      introSort(array, 0, length - 1, depthLimit(length), stats);
+      stopTime(stats, start);
+   }
+   
+   // return how many levels of partitioning introsort allows on n entries
+   // before switching to heapsort, 2 floor(log2 n)
+   private static int depthLimit(int n) {
+      return 2 * (31 - Integer.numberOfLeadingZeros(Math.max(n, 1)));
+   }
+   
+   // introsort the array segment from index lo to index hi given how many
+   // more levels of partitioning are allowed before switching to heapsort
+   private static void introSort(int[] array, int lo, int hi, int depthLimit, SortStats stats) {
+      while (hi - lo + 1 > QUICK_CUTOFF) {
+         if (depthLimit == 0) {
+            heapSort(array, lo, hi, stats);
+            return;
+         }
+         depthLimit--;
+         
+         long bounds = partition3(array, lo, hi, stats);
+         int lt = (int)(bounds >>> 32);
+         int gt = (int)bounds;
+         
+         // recurse into the smaller side, continue with the larger one
+         if (lt - lo < hi - gt) {
+            introSort(array, lo, lt - 1, depthLimit, stats);
+            lo = gt + 1;
+         } else {
+            introSort(array, gt + 1, hi, depthLimit, stats);
+            hi = lt - 1;
+         }
+      }
+      insertionSortRun(array, lo, hi + 1, stats);
+   }
+   
+   // 3-way partition the array segment from index lo to index hi around a
+   // chosen pivot so that [lo, lt) < pivot, [lt, gt] == pivot and
+   // (gt, hi] > pivot, return lt and gt packed as (lt << 32) | gt
+   private static long partition3(int[] array, int lo, int hi, SortStats stats) {
+      int pivotValue = array[choosePivot(array, lo, hi, stats)];
+      int lt = lo;
+      int gt = hi;
+      int i = lo;
+      while (i <= gt) {
+         countComparisons(stats, 1);
+         if (array[i] < pivotValue) {
+            swapElement(array, lt++, i++);
+            countMoves(stats, 2);
+            continue;
+         }
+         countComparisons(stats, 1);
+         if (array[i] > pivotValue) {
+            swapElement(array, i, gt--);
+            countMoves(stats, 2);
+         } else {
+            i++;
+         }
+      }
+      return ((long)lt << 32) | (gt & 0xFFFFFFFFL);
+   }
+   
+   // return index of the pivot for the array segment from index lo to
+   // index hi: the median of first, middle and last entries, or for long
+   // segments the median of the medians of three groups of three (ninther)
+   private static int choosePivot(int[] array, int lo, int hi, SortStats stats) {
+      int mid = (lo + hi) >>> 1;
+      if (hi - lo + 1 <= NINTHER_CUTOFF) {
+         return medianOfThree(array, lo, mid, hi, stats);
+      }
+      int step = (hi - lo + 1) / 8;
+      return medianOfThree(array,
+         medianOfThree(array, lo, lo + step, lo + 2 * step, stats),
+         medianOfThree(array, mid - step, mid, mid + step, stats),
+         medianOfThree(array, hi - 2 * step, hi - step, hi, stats), stats);
+   }
+   
+   // return the index (i, j or k) of the median of three array entries
+   private static int medianOfThree(int[] array, int i, int j, int k, SortStats stats) {
+      countComparisons(stats, 2);
+      if (array[i] < array[j]) {
+         if (array[j] < array[k]) {
+            return j;
+         }
+         countComparisons(stats, 1);
+         return array[i] < array[k] ? k : i;
+      } else {
+         if (array[k] < array[j]) {
+            return j;
+         }
+         countComparisons(stats, 1);
+         return array[k] < array[i] ? k : i;
+      }
+   }
+   
+   // heapsort the array segment from index lo to index hi with a max-heap
+   // kept in place (entry lo + i has children lo + 2i + 1 and lo + 2i + 2)
+   private static void heapSort(int[] array, int lo, int hi, SortStats stats) {
+      int n = hi - lo + 1;
+      for (int i = n / 2 - 1; i >= 0; i--) {
+         siftDown(array, lo, i, n, stats);
+      }
+      for (int end = n - 1; end > 0; end--) {
+         swapElement(array, lo, lo + end);
+         countMoves(stats, 2);
+         siftDown(array, lo, 0, end, stats);
+      }
+   }
+   
+   // move heap entry i of the heap at array[lo, lo + n) down while a child
+   // is larger
+   private static void siftDown(int[] array, int lo, int i, int n, SortStats stats) {
+      int value = array[lo + i];
+      int child = 2 * i + 1;
+      while (child < n) {
+         if (child + 1 < n) {
+            countComparisons(stats, 1);
+            if (array[lo + child + 1] > array[lo + child]) {
+               child++;
+            }
+         }
+         countComparisons(stats, 1);
+         if (array[lo + child] <= value) {
+            break;
+         }
+         array[lo + i] = array[lo + child];
+         countMoves(stats, 1);
+         i = child;
+         child = 2 * i + 1;
+      }
+      array[lo + i] = value;
+      countMoves(stats, 1);
+   }
+   
+   // introsort the array in parallel on the common fork/join pool, both
+   // sides of every partition of a segment longer than PARALLEL_THRESHOLD are
+   // sorted as separate tasks, shorter segments are introsorted sequentially
+   public static void parallelQuickSort(int[] array) {
+      parallelQuickSort(array, null);
+   }
+   
+   // introsort the array in parallel as above, partitioning is the same as in
+   // introSort and every task counts into its own stats which are added up at
+   // join, so stats match those of introSort
+   public static void parallelQuickSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
+      QuickSortTask task = new QuickSortTask(array, 0, array.length - 1, depthLimit(array.length),
+         stats != null);
+      ForkJoinPool.commonPool().invoke(task);
+      if (stats != null) {
+         stats.add(task.stats);
+      }
+      stopTime(stats, start);
+   }
+   
+   // task introsorting the array segment from index lo to index hi
+   private static class QuickSortTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      
+      private final int[] array;
+      private final int lo;
+      private final int hi;
+      private final int depthLimit;
+      private final SortStats stats;      // null when not counted
+      
+      // construct a task given the array, segment bounds, how many more
+      // levels of partitioning are allowed before switching to heapsort and
+      // whether to count the work done
+      public QuickSortTask(int[] array, int lo, int hi, int depthLimit, boolean counted) {
+         this.array = array;
+         this.lo = lo;
+         this.hi = hi;
+         this.depthLimit = depthLimit;
+         this.stats = counted ? new SortStats() : null;
+      }
+      
+      // partition the segment and sort both sides as subtasks if it is long
+      // enough, otherwise introsort it here
+      protected void compute() {
+         if (hi - lo + 1 <= PARALLEL_THRESHOLD || depthLimit == 0) {
+            introSort(array, lo, hi, depthLimit, stats);
+            return;
+         }
+         long bounds = partition3(array, lo, hi, stats);
+         int lt = (int)(bounds >>> 32);
+         int gt = (int)bounds;
+         QuickSortTask left = new QuickSortTask(array, lo, lt - 1, depthLimit - 1, stats != null);
+         QuickSortTask right = new QuickSortTask(array, gt + 1, hi, depthLimit - 1, stats != null);
+         invokeAll(left, right);
+         if (stats != null) {
+            stats.add(left.stats);
+            stats.add(right.stats);
+         }
+      }
+   }
+   
+   // least significant digit radix sort the array iteratively, one counting
+   // pass per RADIX_BITS-bit digit of the keys into an auxiliary buffer and back
    public static void radixSort(int[] array) {
+      radixSort(array, new int[array.length], RADIX_BITS, null);
+   }
+   
+   // radix sort the array as above, counting the run in stats
+   public static void radixSort(int[] array, SortStats stats) {
+      radixSort(array, newBuffer(array.length, stats), RADIX_BITS, stats);
+   }
+   
+   // least significant digit radix sort the array with digits of the given
+   // number of bits (a divisor of 32, e.g. 8 for 4 passes or 16 for 2), using
+   // the given buffer (at least as long as the array) as auxiliary storage
+   public static void radixSort(int[] array, int[] buffer, int digitBits) {
+      radixSort(array, buffer, digitBits, null);
+   }
+   
+   // radix sort the array with the given buffer and digit size as above,
+   // the sign bit of every key is flipped so negative numbers order before
+   // positive ones across the full int range, the run is counted in stats
+   public static void radixSort(int[] array, int[] buffer, int digitBits, SortStats stats) {
+      radixSort(array, array.length, buffer, digitBits, Integer.MIN_VALUE, stats);
+   }
+   
+   // radix sort the first length entries of the array with the given buffer
+   // (at least length long) and digit size as above, counting the run in stats
+   public static void radixSort(int[] array, int length, int[] buffer, int digitBits, SortStats stats) {
+      radixSort(array, length, buffer, digitBits, Integer.MIN_VALUE, stats);
+   }
+   
+   // radix sort the first n entries of the array with the given buffer and
+   // digit size on the keys value - offset taken as unsigned ints (an offset of Integer.MIN_VALUE
+   // flips the sign bit, an offset of the smallest entry leaves the high
+   // digits of a narrow range all zero), the histograms of all digits are
+   // taken in one read of the array and a pass whose digit is the same for
+   // every key is skipped, no comparisons between entries are made
+   private static void radixSort(int[] array, int n, int[] buffer, int digitBits, int offset,
+         SortStats stats) {
+      if (digitBits <= 0 || 32 % digitBits != 0) {
+         throw new IllegalArgumentException("digit bits must divide 32: " + digitBits);
+      }
+      long start = startTime(stats);
+      int radix = 1 << digitBits;
+      int mask = radix - 1;
+      int digits = 32 / digitBits;
       
-      // make an array of bins for negative, 0, and positive digits in a base
-      Queue<Integer>[] radixBin = new Queue[RADIX_BASE + RADIX_BASE - 1];
-      for (int i = 0; i < radixBin.length; i++) {
-         radixBin[i] = new LinkedList<Integer>();
+      // count occurrences of every value of every digit
+      int[][] count = new int[digits][radix];
+      countAllocation(stats, (long)digits * radix);
+      for (int i = 0; i < n; i++) {
+         int key = array[i] - offset;
+         for (int d = 0; d < digits; d++) {
+            count[d][(key >>> (d * digitBits)) & mask]++;
+         }
       }
+      countPasses(stats, 1);
       
-      // needed function variables
-      int digitsLeft;
-      int powerOfBase = 0;
+      int[] source = array;
+      int[] destination = buffer;
+      for (int d = 0; d < digits; d++) {
+         int shift = d * digitBits;
+         int[] digitCount = count[d];
+         
+         // every key has the same digit, the order would not change
+         if (n == 0 || digitCount[((array[0] - offset) >>> shift) & mask] == n) {
+            continue;
+         }
+         
+         // turn counts into starting positions of each digit value
+         int position = 0;
+         for (int v = 0; v < radix; v++) {
+            int c = digitCount[v];
+            digitCount[v] = position;
+            position += c;
+         }
+         
+         // scatter keys by digit, keeping the order of equal digits
+         for (int i = 0; i < n; i++) {
+            int value = source[i];
+            destination[digitCount[((value - offset) >>> shift) & mask]++] = value;
+         }
+         countMoves(stats, n);
+         countPasses(stats, 1);
+         int[] temp = source;
+         source = destination;
+         destination = temp;
+      }
       
-      do {
+      // sorted entries ended up in the buffer, copy them back
+      if (source != array) {
+         System.arraycopy(source, 0, array, 0, n);
+         countMoves(stats, n);
+      }
+      stopTime(stats, start);
+   }
+   
+   // least significant digit radix sort the array in parallel with
+   // RADIX_BITS-bit digits, one worker per thread of the common fork/join pool
+   public static void parallelRadixSort(int[] array) {
+      parallelRadixSort(array, new int[array.length], RADIX_BITS, ForkJoinPool.getCommonPoolParallelism(),
+         null);
+   }
+   
+   // radix sort the array in parallel as above, counting the run in stats
+   public static void parallelRadixSort(int[] array, SortStats stats) {
+      parallelRadixSort(array, newBuffer(array.length, stats), RADIX_BITS,
+         ForkJoinPool.getCommonPoolParallelism(), stats);
+   }
+   
+   // least significant digit radix sort the array in parallel as radixSort
+   // does, with the given buffer, digit size and number of workers (fewer
+   // when the array has less than PARALLEL_THRESHOLD entries per worker)
+   public static void parallelRadixSort(int[] array, int[] buffer, int digitBits, int workers) {
+      parallelRadixSort(array, buffer, digitBits, workers, null);
+   }
+   
+   // radix sort the array in parallel as above: each worker owns a contiguous
+   // slice of the array, on every pass each worker counts the digits of its
+   // slice, a prefix sum over digit values and then workers gives every worker
+   // its own output range for each digit value, and each worker scatters its
+   // slice into those ranges, keeping the order of equal digits, no
+   // comparisons between entries are made, the run is counted in stats
+   public static void parallelRadixSort(int[] array, int[] buffer, int digitBits, int workers,
+         SortStats stats) {
+      if (digitBits <= 0 || 32 % digitBits != 0) {
+         throw new IllegalArgumentException("digit bits must divide 32: " + digitBits);
+      }
+      int n = array.length;
+      if (buffer.length < n) {
+         throw new IllegalArgumentException("buffer shorter than the array: " + buffer.length
+            + " < " + n);
+      }
+      workers = Math.min(workers, n / PARALLEL_THRESHOLD);
+      if (workers <= 1) {
+         radixSort(array, buffer, digitBits, stats);
+         return;
+      }
+      long start = startTime(stats);
+      int radix = 1 << digitBits;
+      int mask = radix - 1;
       
-         digitsLeft = 0;
+      int[][] count = new int[workers][radix];
+      countAllocation(stats, (long)workers * radix);
+      int[] source = array;
+      int[] destination = buffer;
+      for (int shift = 0; shift < 32; shift += digitBits) {
+         ForkJoinPool.commonPool().invoke(
+            new RadixPassTask(source, destination, n, shift, mask, count, 0, workers, false));
+         countPasses(stats, 1);
          
-         // put array entries into radix bins correspinding to the significant digit being examined
-         for (int i = 0; i < array.length; i++) {
-            int num = array[i];
-            int significantDigit = num / (int)Math.pow(RADIX_BASE, powerOfBase) % RADIX_BASE;
-            // binNumber is offset by (RADIX_BASE - 1) to accommodate negative numbers
-            int binNumber = significantDigit + (RADIX_BASE - 1);
-            digitsLeft = Math.max(Math.abs(num / (int)Math.pow(RADIX_BASE, powerOfBase + 1)), digitsLeft);
-            radixBin[binNumber].add(num);
+         // every key has the same digit, the order would not change
+         int digit = ((source[0] ^ Integer.MIN_VALUE) >>> shift) & mask;
+         int same = 0;
+         for (int w = 0; w < workers; w++) {
+            same += count[w][digit];
+         }
+         if (same == n) {
+            continue;
          }
          
-         // take array entries from the radix bins and put them back into the array
-         int i = 0;
-         for (int j = 0; j < radixBin.length; j++) {
-            Queue<Integer> currentBin = radixBin[j];
-            while (!currentBin.isEmpty()) {
-               array[i] = currentBin.remove();
-               i++;
+         // turn counts into starting positions of each digit value for
+         // each worker, lower workers first within a digit value
+         int position = 0;
+         for (int v = 0; v < radix; v++) {
+            for (int w = 0; w < workers; w++) {
+               int c = count[w][v];
+               count[w][v] = position;
+               position += c;
             }
          }
          
-         powerOfBase++;
-         
-      // repeat the loop until all digits from all array entries are examined
-      } while (digitsLeft != 0);
+         ForkJoinPool.commonPool().invoke(
+            new RadixPassTask(source, destination, n, shift, mask, count, 0, workers, true));
+         countMoves(stats, n);
+         countPasses(stats, 1);
+         int[] temp = source;
+         source = destination;
+         destination = temp;
+      }
+      
+      // sorted entries ended up in the buffer, copy them back
+      if (source != array) {
+         System.arraycopy(source, 0, array, 0, n);
+         countMoves(stats, n);
+      }
+      stopTime(stats, start);
+   }
+   
+   // task running one phase of a parallel radix sort pass for workers
+   // [from, to): counting the digits of each worker's slice of the first n
+   // entries of source into count[worker], or scattering the slice into
+   // destination starting at the positions in count[worker], the buffer may
+   // be longer than the array so slices are taken from n
+   private static class RadixPassTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      
+      private final int[] source;
+      private final int[] destination;
+      private final int n;
+      private final int shift;
+      private final int mask;
+      private final int[][] count;
+      private final int from;
+      private final int to;
+      private final boolean scatter;
+      
+      // construct a task given both arrays, the number of entries sorted,
+      // the digit shift and mask, the per-worker counts, the range of
+      // workers and which phase to run
+      public RadixPassTask(int[] source, int[] destination, int n, int shift, int mask,
+            int[][] count, int from, int to, boolean scatter) {
+         this.source = source;
+         this.destination = destination;
+         this.n = n;
+         this.shift = shift;
+         this.mask = mask;
+         this.count = count;
+         this.from = from;
+         this.to = to;
+         this.scatter = scatter;
+      }
       
+      // run the phase for a single worker, or split the workers in two tasks
+      protected void compute() {
+         if (to - from > 1) {
+            int mid = (from + to) >>> 1;
+            invokeAll(new RadixPassTask(source, destination, n, shift, mask, count, from, mid, scatter),
+               new RadixPassTask(source, destination, n, shift, mask, count, mid, to, scatter));
+            return;
+         }
+         int workers = count.length;
+         int lo = (int)((long)n * from / workers);
+         int hi = (int)((long)n * (from + 1) / workers);
+         int[] digitCount = count[from];
+         if (scatter) {
+            for (int i = lo; i < hi; i++) {
+               int value = source[i];
+               destination[digitCount[((value ^ Integer.MIN_VALUE) >>> shift) & mask]++] = value;
+            }
+         } else {
+            Arrays.fill(digitCount, 0);
+            for (int i = lo; i < hi; i++) {
+               digitCount[((source[i] ^ Integer.MIN_VALUE) >>> shift) & mask]++;
+            }
+         }
+      }
+   }
+   
+   // sort the array with the engine that suits it best
+   public static String autoSort(int[] array) {
+      return autoSort(array, null);
+   }
+   
+   // sort the array with the engine that suits it best after a cheap pre-scan
+   // of the array for its range (min and max), its natural ascending and
+   // descending runs and, from a small sample, its ratio of duplicates:
+   // tiny arrays are insertion sorted ("i"), presorted arrays made of long
+   // runs are natural merge sorted ("mn"), arrays whose range is smaller than
+   // their length are counting sorted in one radix pass ("c"), long arrays
+   // with few duplicates are radix sorted on their offset from the smallest
+   // entry ("r"), skipping the digits the range leaves all zero, and the
+   // rest, duplicate-heavy ones included, are introsorted ("qi"), whose 3-way
+   // partition finishes equal entries at once, the pre-scan comparisons
+   // between entries are counted with those of the chosen sort, return the
+   // chosen sort method
+   public static String autoSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
+      int n = array.length;
+      String sortMethod;
+      if (n <= AUTO_INSERTION_LIMIT) {
+         insertionSortRun(array, 0, n, stats);
+         sortMethod = "i";
+      } else {
+         // count runs only as far as it takes to tell the array is not presorted
+         int maxRuns = n / NATURAL_RUN_LENGTH;
+         int runs = 0;
+         for (int lo = 0; lo < n && runs <= maxRuns; lo = runEnd(array, lo, stats)) {
+            runs++;
+         }
+         int min = array[0];
+         int max = array[0];
+         for (int i = 1; i < n; i++) {
+            min = Math.min(min, array[i]);
+            max = Math.max(max, array[i]);
+         }
+         long range = (long)max - min;
+         countPasses(stats, 2);
+         
+         if (runs <= maxRuns) {
+            naturalMergeSort(array, runs, stats);
+            sortMethod = "mn";
+         } else if (range < n) {
+            countingSort(array, min, (int)range, stats);
+            sortMethod = "c";
+         } else if (n > AUTO_RADIX_LIMIT && duplicateRatio(array, stats) < AUTO_DUPLICATE_RATIO) {
+            radixSort(array, n, newBuffer(n, stats), RADIX_BITS, min, stats);
+            sortMethod = "r";
+         } else {
+            introSort(array, 0, n - 1, depthLimit(n), stats);
+            sortMethod = "qi";
+         }
+      }
+      stopTime(stats, start);
+      return sortMethod;
+   }
+   
+   // return the end (exclusive) of the natural run starting at index lo:
+   // the longest non-descending or strictly descending segment from lo
+   private static int runEnd(int[] array, int lo, SortStats stats) {
+      int hi = lo + 1;
+      if (hi == array.length) {
+         return hi;
+      }
+      countComparisons(stats, 1);
+      if (array[hi] < array[lo]) {
+         while (++hi < array.length) {
+            countComparisons(stats, 1);
+            if (array[hi] >= array[hi - 1]) {
+               break;
+            }
+         }
+      } else {
+         while (++hi < array.length) {
+            countComparisons(stats, 1);
+            if (array[hi] < array[hi - 1]) {
+               break;
+            }
+         }
+      }
+      return hi;
+   }
+   
+   // return the ratio of duplicates among AUTO_SAMPLE evenly spaced entries
+   // of the array, 0 if every sampled entry is distinct
+   private static double duplicateRatio(int[] array, SortStats stats) {
+      int samples = Math.min(AUTO_SAMPLE, array.length);
+      int[] sample = new int[samples];
+      countAllocation(stats, samples);
+      for (int i = 0; i < samples; i++) {
+         sample[i] = array[(int)((long)i * array.length / samples)];
+      }
+      insertionSortRun(sample, 0, samples, stats);
+      int distinct = 1;
+      for (int i = 1; i < samples; i++) {
+         if (sample[i] != sample[i - 1]) {
+            distinct++;
+         }
+      }
+      return 1 - (double)distinct / samples;
+   }
+   
+   // merge sort the array by its natural runs, given how many there are:
+   // descending runs are reversed, then neighbouring runs are merged pairwise
+   // back and forth between the array and one buffer until one run is left
+   private static void naturalMergeSort(int[] array, int runs, SortStats stats) {
+      int n = array.length;
+      // run i is [bounds[i], bounds[i + 1])
+      int[] bounds = new int[runs + 1];
+      countAllocation(stats, runs + 1);
+      int run = 0;
+      for (int lo = 0; lo < n; lo = bounds[++run]) {
+         int hi = runEnd(array, lo, stats);
+         bounds[run + 1] = hi;
+         if (hi - lo < 2) {
+            continue;
+         }
+         // descending run, reverse it
+         countComparisons(stats, 1);
+         if (array[lo + 1] < array[lo]) {
+            for (int i = lo, j = hi - 1; i < j; i++, j--) {
+               swapElement(array, i, j);
+               countMoves(stats, 2);
+            }
+         }
+      }
+      countPasses(stats, 1);
+      if (runs == 1) {
+         return;
+      }
+      
+      int[] source = array;
+      int[] destination = newBuffer(n, stats);
+      for (; runs > 1; runs = (runs + 1) / 2) {
+         int merged = 0;
+         for (run = 0; run + 1 < runs; run += 2) {
+            merge(source, destination, bounds[run], bounds[run + 1], bounds[run + 2], stats);
+            bounds[++merged] = bounds[run + 2];
+         }
+         // odd run out, copy it across unmerged
+         if (run < runs) {
+            System.arraycopy(source, bounds[run], destination, bounds[run], n - bounds[run]);
+            countMoves(stats, n - bounds[run]);
+            bounds[++merged] = n;
+         }
+         countPasses(stats, 1);
+         int[] temp = source;
+         source = destination;
+         destination = temp;
+      }
+      
+      // sorted entries ended up in the buffer, copy them back
+      if (source != array) {
+         System.arraycopy(source, 0, array, 0, n);
+         countMoves(stats, n);
+      }
+   }
+   
+   // sort the array whose entries are all within min and min + range (less
+   // than Integer.MAX_VALUE) by counting how many times every value occurs,
+   // then writing each value out that many times, a single radix pass with
+   // one digit covering the whole range, no comparisons between entries
+   private static void countingSort(int[] array, int min, int range, SortStats stats) {
+      int[] count = new int[range + 1];
+      countAllocation(stats, range + 1);
+      for (int value : array) {
+         count[value - min]++;
+      }
+      int i = 0;
+      for (int v = 0; v <= range; v++) {
+         for (int c = count[v]; c > 0; c--) {
+            array[i++] = min + v;
+         }
+      }
+      countMoves(stats, array.length);
+      countPasses(stats, 2);
+   }
+   
+   // sort the keys with merge sort ("m", stable), introsort ("q") or radix
+   // sort ("r", stable), moving every entry of the parallel values array
+   // along with its key, so values[i] stays the payload of keys[i]
+   public static void sortByKey(long[] keys, int[] values, String sortMethod) {
+      sortByKey(keys, values, sortMethod, null);
+   }
+   
+   // sort the keys and their values by the named sort as above, counting the
+   // run in stats
+   public static void sortByKey(long[] keys, int[] values, String sortMethod, SortStats stats) {
+      switch (sortMethod) {
+         case "m":   mergeSort(keys, values, stats);
+                     break;
+         case "q":   introSort(keys, values, stats);
+                     break;
+         case "r":   radixSort(keys, values, stats);
+                     break;
+         default :   throw new IllegalArgumentException("unknown key sort: " + sortMethod);
+      }
+   }
+   
+   // sort int keys and their values by the named sort as above, the keys are
+   // widened to a long array for the sort and narrowed back after it
+   public static void sortByKey(int[] keys, int[] values, String sortMethod, SortStats stats) {
+      long[] wideKeys = new long[keys.length];
+      countAllocation(stats, 2L * keys.length);
+      for (int i = 0; i < keys.length; i++) {
+         wideKeys[i] = keys[i];
+      }
+      sortByKey(wideKeys, values, sortMethod, stats);
+      for (int i = 0; i < keys.length; i++) {
+         keys[i] = (int)wideKeys[i];
+      }
+   }
+   
+   // sort int keys and their values by the named sort as above
+   public static void sortByKey(int[] keys, int[] values, String sortMethod) {
+      sortByKey(keys, values, sortMethod, null);
+   }
+   
+   // return the permutation index of the keys by the named sort: index[i] is
+   // the position in keys of the i-th smallest key, the keys are not changed,
+   // equal keys keep their order with the stable sorts
+   public static int[] sortIndex(long[] keys, String sortMethod) {
+      long[] sortedKeys = Arrays.copyOf(keys, keys.length);
+      int[] index = new int[keys.length];
+      for (int i = 0; i < index.length; i++) {
+         index[i] = i;
+      }
+      sortByKey(sortedKeys, index, sortMethod, null);
+      return index;
+   }
+   
+   // return the permutation index of the int keys by the named sort as above
+   public static int[] sortIndex(int[] keys, String sortMethod) {
+      int[] sortedKeys = Arrays.copyOf(keys, keys.length);
+      int[] index = new int[keys.length];
+      for (int i = 0; i < index.length; i++) {
+         index[i] = i;
+      }
+      sortByKey(sortedKeys, index, sortMethod, null);
+      return index;
+   }
+   
+   // merge sort the keys and their values as mergeSortInPlace sorts an int
+   // array, with one buffer for each array, stable: equal keys keep their order
+   public static void mergeSort(long[] keys, int[] values, SortStats stats) {
+      checkLengths(keys, values);
+      long[] keyBuffer = new long[keys.length];
+      int[] valueBuffer = new int[values.length];
+      countAllocation(stats, 3L * keys.length);
+      mergeSort(keys, values, keyBuffer, valueBuffer, stats);
+   }
+   
+   // merge sort the keys and their values as above in the given buffers, at
+   // least as long as the keys, so that sorting many arrays allocates nothing
+   public static void mergeSort(long[] keys, int[] values, long[] keyBuffer, int[] valueBuffer,
+         SortStats stats) {
+      checkLengths(keys, values);
+      checkBuffers(keys, keyBuffer, valueBuffer);
+      long start = startTime(stats);
+      int n = keys.length;
+      System.arraycopy(keys, 0, keyBuffer, 0, n);
+      System.arraycopy(values, 0, valueBuffer, 0, n);
+      countMoves(stats, n);
+      mergeSort(keyBuffer, valueBuffer, keys, values, 0, n, stats);
+      countPasses(stats, mergeLevels(n, MERGE_CUTOFF) + 1);
+      stopTime(stats, start);
+   }
+   
+   // sort the source entries [lo, hi) into the destination arrays, both hold
+   // the same entries on entry, the source is used as scratch space
+   private static void mergeSort(long[] sourceKeys, int[] sourceValues, long[] keys, int[] values,
+         int lo, int hi, SortStats stats) {
+      if (hi - lo <= MERGE_CUTOFF) {
+         insertionSortRun(keys, values, lo, hi, stats);
+         return;
+      }
+      int mid = (lo + hi) >>> 1;
+      // sort each half of the destination into the source, then merge back
+      mergeSort(keys, values, sourceKeys, sourceValues, lo, mid, stats);
+      mergeSort(keys, values, sourceKeys, sourceValues, mid, hi, stats);
+      
+      // halves already in order, copy them across without merging
+      countComparisons(stats, 1);
+      countMoves(stats, hi - lo);
+      if (sourceKeys[mid - 1] <= sourceKeys[mid]) {
+         System.arraycopy(sourceKeys, lo, keys, lo, hi - lo);
+         System.arraycopy(sourceValues, lo, values, lo, hi - lo);
+         return;
+      }
+      int i = lo;
+      int j = mid;
+      int k = lo;
+      while (i < mid && j < hi) {
+         if (sourceKeys[i] <= sourceKeys[j]) {
+            keys[k] = sourceKeys[i];
+            values[k++] = sourceValues[i++];
+         } else {
+            keys[k] = sourceKeys[j];
+            values[k++] = sourceValues[j++];
+         }
+         countComparisons(stats, 1);
+      }
+      // add any unused entries from either run
+      System.arraycopy(sourceKeys, i, keys, k, mid - i);
+      System.arraycopy(sourceValues, i, values, k, mid - i);
+      System.arraycopy(sourceKeys, j, keys, k + mid - i, hi - j);
+      System.arraycopy(sourceValues, j, values, k + mid - i, hi - j);
+   }
+   
+   // insertion sort the entries [lo, hi) of the keys and their values,
+   // stable: an entry never moves past an equal key
+   private static void insertionSortRun(long[] keys, int[] values, int lo, int hi, SortStats stats) {
+      for (int i = lo + 1; i < hi; i++) {
+         long key = keys[i];
+         int value = values[i];
+         int j = i;
+         while (j > lo) {
+            countComparisons(stats, 1);
+            if (keys[j - 1] <= key) {
+               break;
+            }
+            keys[j] = keys[j - 1];
+            values[j] = values[j - 1];
+            j--;
+         }
+         keys[j] = key;
+         values[j] = value;
+         countMoves(stats, i - j + 1);
+      }
+   }
+   
+   // introsort the keys and their values as introSort sorts an int array,
+   // not stable: equal keys may come out in any order
+   public static void introSort(long[] keys, int[] values, SortStats stats) {
+      checkLengths(keys, values);
+      long start = startTime(stats);
+      introSort(keys, values, 0, keys.length - 1, depthLimit(keys.length), stats);
+      stopTime(stats, start);
+   }
+   
+   // introsort the entries from index lo to index hi of the keys and their
+   // values given how many more levels of partitioning are allowed
+   private static void introSort(long[] keys, int[] values, int lo, int hi, int depthLimit,
+         SortStats stats) {
+      while (hi - lo + 1 > QUICK_CUTOFF) {
+         if (depthLimit == 0) {
+            heapSort(keys, values, lo, hi, stats);
+            return;
+         }
+         depthLimit--;
+         
+         // 3-way partition: [lo, lt) < pivot, [lt, gt] == pivot, (gt, hi] > pivot
+         long pivotKey = choosePivot(keys, lo, hi, stats);
+         int lt = lo;
+         int gt = hi;
+         int i = lo;
+         while (i <= gt) {
+            countComparisons(stats, 1);
+            if (keys[i] < pivotKey) {
+               swapEntries(keys, values, lt++, i++, stats);
+               continue;
+            }
+            countComparisons(stats, 1);
+            if (keys[i] > pivotKey) {
+               swapEntries(keys, values, i, gt--, stats);
+            } else {
+               i++;
+            }
+         }
+         
+         // recurse into the smaller side, continue with the larger one
+         if (lt - lo < hi - gt) {
+            introSort(keys, values, lo, lt - 1, depthLimit, stats);
+            lo = gt + 1;
+         } else {
+            introSort(keys, values, gt + 1, hi, depthLimit, stats);
+            hi = lt - 1;
+         }
+      }
+      insertionSortRun(keys, values, lo, hi + 1, stats);
+   }
+   
+   // return the pivot key for the entries from index lo to index hi as
+   // choosePivot does for an int array: median of three, or ninther when large
+   private static long choosePivot(long[] keys, int lo, int hi, SortStats stats) {
+      int mid = (lo + hi) >>> 1;
+      if (hi - lo + 1 <= NINTHER_CUTOFF) {
+         return medianOfThree(keys[lo], keys[mid], keys[hi], stats);
+      }
+      int step = (hi - lo + 1) / 8;
+      return medianOfThree(
+         medianOfThree(keys[lo], keys[lo + step], keys[lo + 2 * step], stats),
+         medianOfThree(keys[mid - step], keys[mid], keys[mid + step], stats),
+         medianOfThree(keys[hi - 2 * step], keys[hi - step], keys[hi], stats), stats);
+   }
+   
+   // return the median of three keys
+   private static long medianOfThree(long a, long b, long c, SortStats stats) {
+      countComparisons(stats, 3);
+      return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+   }
+   
+   // heapsort the entries from index lo to index hi of the keys and their
+   // values with a max-heap kept in place
+   private static void heapSort(long[] keys, int[] values, int lo, int hi, SortStats stats) {
+      int n = hi - lo + 1;
+      for (int i = n / 2 - 1; i >= 0; i--) {
+         siftDown(keys, values, lo, i, n, stats);
+      }
+      for (int end = n - 1; end > 0; end--) {
+         swapEntries(keys, values, lo, lo + end, stats);
+         siftDown(keys, values, lo, 0, end, stats);
+      }
+   }
+   
+   // move heap entry i of the heap at [lo, lo + n) of the keys and their
+   // values down while a child has a larger key
+   private static void siftDown(long[] keys, int[] values, int lo, int i, int n, SortStats stats) {
+      long key = keys[lo + i];
+      int value = values[lo + i];
+      int child = 2 * i + 1;
+      while (child < n) {
+         if (child + 1 < n) {
+            countComparisons(stats, 1);
+            if (keys[lo + child + 1] > keys[lo + child]) {
+               child++;
+            }
+         }
+         countComparisons(stats, 1);
+         if (keys[lo + child] <= key) {
+            break;
+         }
+         keys[lo + i] = keys[lo + child];
+         values[lo + i] = values[lo + child];
+         countMoves(stats, 1);
+         i = child;
+         child = 2 * i + 1;
+      }
+      keys[lo + i] = key;
+      values[lo + i] = value;
+      countMoves(stats, 1);
+   }
+   
+   // swap two entries of the keys and of their values
+   private static void swapEntries(long[] keys, int[] values, int i, int j, SortStats stats) {
+      long key = keys[i];
+      keys[i] = keys[j];
+      keys[j] = key;
+      int value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+      countMoves(stats, 2);
+   }
+   
+   // least significant digit radix sort the keys and their values with
+   // RADIX_BITS-bit digits, stable: equal keys keep their order, the keys
+   // are taken as unsigned offsets from the smallest key, which orders them
+   // as signed longs and leaves the digits above the range of the keys all
+   // zero, the histograms of all digits are taken in one read and a pass
+   // whose digit is the same for every key is skipped
+   public static void radixSort(long[] keys, int[] values, SortStats stats) {
+      checkLengths(keys, values);
+      long[] keyBuffer = new long[keys.length];
+      int[] valueBuffer = new int[values.length];
+      countAllocation(stats, 3L * keys.length);
+      radixSort(keys, values, keyBuffer, valueBuffer, stats);
+   }
+   
+   // radix sort the keys and their values as above in the given buffers, at
+   // least as long as the keys, so that sorting many arrays allocates only
+   // the digit counts
+   public static void radixSort(long[] keys, int[] values, long[] keyBuffer, int[] valueBuffer,
+         SortStats stats) {
+      checkLengths(keys, values);
+      checkBuffers(keys, keyBuffer, valueBuffer);
+      long start = startTime(stats);
+      int n = keys.length;
+      int radix = 1 << RADIX_BITS;
+      int mask = radix - 1;
+      int digits = 64 / RADIX_BITS;
+      long min = Long.MAX_VALUE;
+      for (long key : keys) {
+         min = Math.min(min, key);
+      }
+      
+      // count occurrences of every value of every digit, digit d counted
+      // from index d * radix
+      int[] count = new int[digits * radix];
+      countAllocation(stats, (long)digits * radix);
+      for (int i = 0; i < n; i++) {
+         long key = keys[i] - min;
+         for (int d = 0; d < digits; d++) {
+            count[d * radix + ((int)(key >>> (d * RADIX_BITS)) & mask)]++;
+         }
+      }
+      countPasses(stats, 2);
+      
+      long[] sourceKeys = keys;
+      int[] sourceValues = values;
+      long[] destinationKeys = keyBuffer;
+      int[] destinationValues = valueBuffer;
+      for (int d = 0; d < digits; d++) {
+         int shift = d * RADIX_BITS;
+         int base = d * radix;
+         
+         // every key has the same digit, the order would not change
+         if (n == 0 || count[base + ((int)((keys[0] - min) >>> shift) & mask)] == n) {
+            continue;
+         }
+         
+         // turn counts into starting positions of each digit value
+         int position = 0;
+         for (int v = base; v < base + radix; v++) {
+            int c = count[v];
+            count[v] = position;
+            position += c;
+         }
+         
+         // scatter entries by digit, keeping the order of equal digits
+         for (int i = 0; i < n; i++) {
+            int k = count[base + ((int)((sourceKeys[i] - min) >>> shift) & mask)]++;
+            destinationKeys[k] = sourceKeys[i];
+            destinationValues[k] = sourceValues[i];
+         }
+         countMoves(stats, n);
+         countPasses(stats, 1);
+         long[] tempKeys = sourceKeys;
+         sourceKeys = destinationKeys;
+         destinationKeys = tempKeys;
+         int[] tempValues = sourceValues;
+         sourceValues = destinationValues;
+         destinationValues = tempValues;
+      }
+      
+      // sorted entries ended up in the buffers, copy them back
+      if (sourceKeys != keys) {
+         System.arraycopy(sourceKeys, 0, keys, 0, n);
+         System.arraycopy(sourceValues, 0, values, 0, n);
+         countMoves(stats, n);
+      }
+      stopTime(stats, start);
+   }
+   
+   // throw an IllegalArgumentException if the keys and values differ in length
+   private static void checkLengths(long[] keys, int[] values) {
+      if (keys.length != values.length) {
+         throw new IllegalArgumentException("keys and values differ in length: "
+            + keys.length + " and " + values.length);
+      }
+   }
+   
+   // throw an IllegalArgumentException if a buffer is shorter than the keys
+   private static void checkBuffers(long[] keys, long[] keyBuffer, int[] valueBuffer) {
+      if (keyBuffer.length < keys.length || valueBuffer.length < keys.length) {
+         throw new IllegalArgumentException("buffers shorter than the keys: " + keys.length);
+      }
+   }
+   
+   // add the entries of the array one at a time to a streaming sorter large
+   // enough to stay exact, return its sorted output
+   public static int[] streamSort(int[] array, SortStats stats) {
+      long start = startTime(stats);
+      StreamSorter sorter = new StreamSorter(Math.max(array.length, STREAM_RUN_LENGTH), 0, stats);
+      for (int value : array) {
+         sorter.add(value);
+      }
+      int[] sorted = sorter.sorted();
+      stopTime(stats, start);
+      return sorted;
+   }
+   
+   // streaming sorter, takes ints one at a time or in batches as they arrive
+   // and answers sorted output, top and bottom k and percentile queries at
+   // any time: single values are buffered and insertion sorted into runs of
+   // STREAM_RUN_LENGTH, larger batches are merge sorted into a run of their
+   // own, runs are kept in size tiers (tier t holds runs shorter than
+   // STREAM_RUN_LENGTH * STREAM_TIER_FANOUT^(t+1)) and only once a tier holds
+   // STREAM_TIER_FANOUT runs are they merged with mergeTwoSortedArray into a
+   // run of a higher tier, so each entry is merged O(log n) times and runs are
+   // only fully merged when sorted output is asked for; memory is bounded by
+   // the capacity: when more entries are kept, the level holding the most is
+   // merged into one run of which every other entry is dropped, the kept ones
+   // standing for two (runs of level h stand for 2^h entries each), which
+   // makes percentiles approximate from then on, the maxK largest and smallest
+   // entries are kept aside so topK and bottomK up to maxK stay exact
+   public static class StreamSorter {
+      private final int capacity;         // max entries kept in runs
+      private final int maxK;             // largest k answered exactly
+      private final SortStats stats;      // counts sorts and merges, or null
+      private final int[] pending = new int[STREAM_RUN_LENGTH];
+      private int pendingLength;
+      // runs of level h in size tier t, each entry of them stands for 2^h
+      private final List<List<List<int[]>>> levels = new ArrayList<>();
+      private long kept;                  // entries kept in runs
+      private long count;                 // entries added
+      private boolean exact = true;       // no entry dropped yet
+      private boolean dropFirst;          // alternates the half compaction drops
+      private int[] largest = new int[0]; // maxK largest entries, ascending
+      private int[] smallest = new int[0];// maxK smallest entries, ascending
+      
+      // construct a sorter keeping at most capacity entries (at least
+      // STREAM_RUN_LENGTH) with exact top and bottom k up to maxK
+      public StreamSorter(int capacity, int maxK) {
+         this(capacity, maxK, null);
+      }
+      
+      // construct a sorter as above counting its sorts and merges in stats
+      public StreamSorter(int capacity, int maxK, SortStats stats) {
+         if (capacity < STREAM_RUN_LENGTH || maxK < 0) {
+            throw new IllegalArgumentException("capacity below " + STREAM_RUN_LENGTH
+               + " or negative maxK: " + capacity + ", " + maxK);
+         }
+         this.capacity = capacity;
+         this.maxK = maxK;
+         this.stats = stats;
+      }
+      
+      // return the number of entries added
+      public long size() {
+         return count + pendingLength;
+      }
+      
+      // return true if no entry has been dropped to stay within the capacity,
+      // so sorted output and percentiles are exact
+      public boolean isExact() {
+         return exact;
+      }
+      
+      // add one entry
+      public void add(int value) {
+         pending[pendingLength++] = value;
+         if (pendingLength == pending.length) {
+            flush();
+         }
+      }
+      
+      // add a batch of entries
+      public void add(int[] batch) {
+         add(batch, 0, batch.length);
+      }
+      
+      // add the entries batch[from, to)
+      public void add(int[] batch, int from, int to) {
+         if (to - from < STREAM_RUN_LENGTH) {
+            for (int i = from; i < to; i++) {
+               add(batch[i]);
+            }
+            return;
+         }
+         int[] run = Arrays.copyOfRange(batch, from, to);
+         countAllocation(stats, run.length);
+         mergeSortInPlace(run, MERGE_CUTOFF, stats);
+         addRun(run);
+      }
+      
+      // return the k largest entries (fewer if fewer were added), largest
+      // first, k may exceed maxK only while the sorter is exact
+      public int[] topK(int k) {
+         int[] extremes = extremes(k, false);
+         int[] top = new int[extremes.length];
+         for (int i = 0; i < top.length; i++) {
+            top[i] = extremes[extremes.length - 1 - i];
+         }
+         return top;
+      }
+      
+      // return the k smallest entries (fewer if fewer were added), smallest
+      // first, k may exceed maxK only while the sorter is exact
+      public int[] bottomK(int k) {
+         return extremes(k, true);
+      }
+      
+      // return the entry at the given percentile (0 to 100) of the entries
+      // added by the nearest rank, exact while the sorter is exact, else the
+      // entries kept are weighed by how many each stands for
+      public int percentile(double percent) {
+         if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("percentile out of [0, 100]: " + percent);
+         }
+         flush();
+         if (kept == 0) {
+            throw new IllegalStateException("no entries added");
+         }
+         
+         // total weight, bounds of the entries kept
+         long total = 0;
+         long lo = Integer.MAX_VALUE;
+         long hi = Integer.MIN_VALUE;
+         for (int h = 0; h < levels.size(); h++) {
+            for (List<int[]> tier : levels.get(h)) {
+               for (int[] run : tier) {
+                  total += (long)run.length << h;
+                  lo = Math.min(lo, run[0]);
+                  hi = Math.max(hi, run[run.length - 1]);
+               }
+            }
+         }
+         
+         // smallest value with at least rank entries not larger than it
+         long rank = Math.max(1, (long)Math.ceil(percent / 100 * total));
+         while (lo < hi) {
+            long mid = (lo + hi) >> 1;
+            if (weightedRank((int)mid) >= rank) {
+               hi = mid;
+            } else {
+               lo = mid + 1;
+            }
+         }
+         return (int)lo;
+      }
+      
+      // return all entries added in ascending order, merging every run into
+      // one, only while the sorter is exact
+      public int[] sorted() {
+         flush();
+         if (!exact) {
+            throw new IllegalStateException("entries were dropped to stay within capacity "
+               + capacity);
+         }
+         if (levels.isEmpty()) {
+            return new int[0];
+         }
+         List<int[]> runs = new ArrayList<>();
+         for (List<int[]> tier : levels.get(0)) {
+            runs.addAll(tier);
+            tier.clear();
+         }
+         int[] run = mergeAll(runs);
+         insertRun(0, run);
+         return Arrays.copyOf(run, run.length);
+      }
+      
+      // insertion sort the buffered entries into a run
+      private void flush() {
+         if (pendingLength == 0) {
+            return;
+         }
+         int[] run = Arrays.copyOf(pending, pendingLength);
+         countAllocation(stats, run.length);
+         pendingLength = 0;
+         insertionSortRun(run, 0, run.length, stats);
+         addRun(run);
+      }
+      
+      // add a sorted run of new entries, then compact to the capacity
+      private void addRun(int[] run) {
+         count += run.length;
+         kept += run.length;
+         if (maxK > 0) {
+            largest = keepExtremes(largest, run, false);
+            smallest = keepExtremes(smallest, run, true);
+         }
+         insertRun(0, run);
+         
+         // drop half of the fullest level until within capacity
+         while (kept > capacity) {
+            int fullest = -1;
+            long most = 1;
+            for (int h = 0; h < levels.size(); h++) {
+               long entries = levelEntries(h);
+               if (entries > most) {
+                  fullest = h;
+                  most = entries;
+               }
+            }
+            if (fullest < 0) {
+               break;
+            }
+            List<int[]> runs = new ArrayList<>();
+            for (List<int[]> tier : levels.get(fullest)) {
+               runs.addAll(tier);
+               tier.clear();
+            }
+            int[] merged = mergeAll(runs);
+            int[] half = new int[(merged.length + (dropFirst ? 0 : 1)) / 2];
+            countAllocation(stats, half.length);
+            countMoves(stats, half.length);
+            for (int i = 0, j = dropFirst ? 1 : 0; i < half.length; i++, j += 2) {
+               half[i] = merged[j];
+            }
+            dropFirst = !dropFirst;
+            exact = false;
+            kept -= merged.length - half.length;
+            insertRun(fullest + 1, half);
+         }
+      }
+      
+      // merge the maxK entries at the given end of a sorted run into the
+      // extremes kept so far, return the new extremes
+      private int[] keepExtremes(int[] extremes, int[] run, boolean smallestEnd) {
+         int length = Math.min(maxK, run.length);
+         int[] end = smallestEnd ? Arrays.copyOf(run, length)
+            : Arrays.copyOfRange(run, run.length - length, run.length);
+         int[] merged = mergeTwoSortedArray(extremes, end, stats);
+         if (merged.length <= maxK) {
+            return merged;
+         }
+         return smallestEnd ? Arrays.copyOf(merged, maxK)
+            : Arrays.copyOfRange(merged, merged.length - maxK, merged.length);
+      }
+      
+      // return the k smallest entries if asked for the smallest end, else
+      // the k largest, ascending either way, from the extremes kept aside, or
+      // from all entries while exact and k exceeds maxK
+      private int[] extremes(int k, boolean smallestEnd) {
+         if (k < 0) {
+            throw new IllegalArgumentException("negative k: " + k);
+         }
+         flush();
+         int length = (int)Math.min(k, count);
+         int[] ends = smallestEnd ? smallest : largest;
+         if (length > maxK) {
+            if (!exact) {
+               throw new IllegalArgumentException("k above maxK " + maxK
+                  + " once entries were dropped: " + k);
+            }
+            ends = sorted();
+         }
+         return smallestEnd ? Arrays.copyOf(ends, length)
+            : Arrays.copyOfRange(ends, ends.length - length, ends.length);
+      }
+      
+      // add a run to its size tier of the given level, merging the tier into
+      // one run of a higher tier once it holds STREAM_TIER_FANOUT runs
+      private void insertRun(int level, int[] run) {
+         while (levels.size() <= level) {
+            levels.add(new ArrayList<>());
+         }
+         List<List<int[]>> tiers = levels.get(level);
+         int t = tier(run.length);
+         while (tiers.size() <= t) {
+            tiers.add(new ArrayList<>());
+         }
+         List<int[]> tier = tiers.get(t);
+         tier.add(run);
+         if (tier.size() >= STREAM_TIER_FANOUT) {
+            int[] merged = mergeAll(new ArrayList<>(tier));
+            tier.clear();
+            insertRun(level, merged);
+         }
+      }
+      
+      // return the size tier of a run of the given length
+      private static int tier(int length) {
+         int t = 0;
+         long limit = (long)STREAM_RUN_LENGTH * STREAM_TIER_FANOUT;
+         while (length >= limit) {
+            t++;
+            limit *= STREAM_TIER_FANOUT;
+         }
+         return t;
+      }
+      
+      // merge the sorted runs pairwise into one sorted run
+      private int[] mergeAll(List<int[]> runs) {
+         if (runs.isEmpty()) {
+            return new int[0];
+         }
+         while (runs.size() > 1) {
+            List<int[]> merged = new ArrayList<>();
+            for (int i = 0; i + 1 < runs.size(); i += 2) {
+               merged.add(mergeTwoSortedArray(runs.get(i), runs.get(i + 1), stats));
+            }
+            if (runs.size() % 2 == 1) {
+               merged.add(runs.get(runs.size() - 1));
+            }
+            runs = merged;
+         }
+         return runs.get(0);
+      }
+      
+      // return the number of entries kept in the runs of a level
+      private long levelEntries(int level) {
+         long entries = 0;
+         for (List<int[]> tier : levels.get(level)) {
+            for (int[] run : tier) {
+               entries += run.length;
+            }
+         }
+         return entries;
+      }
+      
+      // return how many entries added are not larger than value, each entry
+      // kept weighed by how many it stands for
+      private long weightedRank(int value) {
+         long rank = 0;
+         for (int h = 0; h < levels.size(); h++) {
+            for (List<int[]> tier : levels.get(h)) {
+               for (int[] run : tier) {
+                  rank += (long)upperBound(run, 0, run.length, value) << h;
+               }
+            }
+         }
+         return rank;
+      }
+   }
+   
+   // sort a binary file of little-endian ints into the output file within
+   // about the given memory budget, return the number of comparisons made
+   // by the merge phase
+   public static long externalSort(File input, File output, long memoryBytes, String sortMethod)
+         throws IOException {
+      return externalSort(input, output, memoryBytes, sortMethod, null);
+   }
+   
+   // sort a binary file of little-endian ints into the output file within
+   // about the given memory budget: what the budget leaves after a read
+   // window and a write buffer holds the chunk, plus an equal scratch buffer
+   // for merge sort ("m") and radix sort ("r") but not introsort ("q"), both
+   // allocated once and reused for every chunk, chunks are read through
+   // mapped windows, sorted in memory and written to
+   // temporary run files next to the output, then the runs are merged with a
+   // loser tree, each read ahead through its own mapped window, in as many
+   // passes as the number of runs the budget can merge at once requires,
+   // the chunk sorts and merges are counted in stats, return the number of
+   // comparisons made by the merge phase, throw an IllegalArgumentException
+   // if the budget is below MIN_EXTERNAL_MEMORY
+   public static long externalSort(File input, File output, long memoryBytes, String sortMethod,
+         SortStats stats) throws IOException {
+      if (!sortMethod.equals("m") && !sortMethod.equals("q") && !sortMethod.equals("r")) {
+         throw new IllegalArgumentException("unknown chunk sort: " + sortMethod);
+      }
+      if (memoryBytes < MIN_EXTERNAL_MEMORY) {
+         throw new IllegalArgumentException("external sort needs at least " + MIN_EXTERNAL_MEMORY
+            + " bytes of memory: " + memoryBytes);
+      }
+      long start = startTime(stats);
+      long entries = input.length() / 4;
+      int window = chunkWindow(memoryBytes);
+      // bytes per chunk entry: the entry, and its scratch slot except for introsort
+      int entryBytes = sortMethod.equals("q") ? 4 : 8;
+      int chunkLength = (int)Math.min((memoryBytes - 2L * window) / entryBytes, MAP_WINDOW / entryBytes);
+      File directory = output.getAbsoluteFile().getParentFile();
+      SortStats chunkStats = stats == null ? null : new SortStats();
+      
+      // sort the file in chunks, a file that fits in one is written directly
+      List<File> runs = new ArrayList<>();
+      try (FileChannel channel = new RandomAccessFile(input, "r").getChannel()) {
+         int[] chunk = newBuffer((int)Math.min(chunkLength, entries), stats);
+         int[] buffer = sortMethod.equals("q") ? null : newBuffer(chunk.length, stats);
+         for (long offset = 0; offset < entries || runs.isEmpty(); offset += chunkLength) {
+            int length = (int)Math.min(chunkLength, entries - offset);
+            readInts(channel, offset * 4, chunk, length, window);
+            switch (sortMethod) {
+               case "m":   mergeSortInPlace(chunk, length, buffer, MERGE_CUTOFF, chunkStats);
+                           break;
+               case "q":   introSort(chunk, length, chunkStats);
+                           break;
+               default :   radixSort(chunk, length, buffer, RADIX_BITS, chunkStats);
+                           break;
+            }
+            File file = entries <= chunkLength ? output : newRun(directory);
+            writeInts(file, chunk, length, window);
+            runs.add(file);
+         }
+      }
+      // the chunk phase counts as one pass over the file, so the passes
+      // the chunk sorts made within their chunks are not added
+      if (stats != null) {
+         stats.comparisons += chunkStats.comparisons;
+         stats.moves += chunkStats.moves + entries;
+         stats.auxBytes += chunkStats.auxBytes;
+         stats.passes += 1;
+      }
+      if (runs.get(0) == output) {
+         stopTime(stats, start);
+         return 0;
+      }
+      
+      // merge groups of runs into longer runs until one pass can merge all
+      int fanIn = (int)Math.max(2, Math.min(memoryBytes / MIN_READ_AHEAD - 1, Integer.MAX_VALUE));
+      long comparisons = 0;
+      while (runs.size() > fanIn) {
+         List<File> merged = new ArrayList<>();
+         for (int i = 0; i < runs.size(); i += fanIn) {
+            List<File> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+            File run = newRun(directory);
+            comparisons += mergeRuns(group, run, memoryBytes);
+            merged.add(run);
+         }
+         deleteRuns(runs);
+         runs = merged;
+         countMoves(stats, entries);
+         countPasses(stats, 1);
+      }
+      comparisons += mergeRuns(runs, output, memoryBytes);
+      deleteRuns(runs);
+      countMoves(stats, entries);
+      countPasses(stats, 1);
+      countComparisons(stats, comparisons);
+      stopTime(stats, start);
+      return comparisons;
+   }
+   
+   // merge the sorted run files into the output file with a loser tree: a
+   // tournament tree whose internal nodes hold the run that lost the match
+   // there, so after the winner's run advances only the matches on its path
+   // to the root are replayed, log k comparisons per entry for k runs, each
+   // run and the output get an equal share of the memory budget as buffer,
+   // return the number of comparisons made
+   private static long mergeRuns(List<File> files, File output, long memoryBytes) throws IOException {
+      int k = files.size();
+      int window = (int)Math.max(MIN_READ_AHEAD, Math.min(memoryBytes / (k + 1), MAP_WINDOW)) & ~3;
+      RunReader[] runs = new RunReader[k];
+      try (IntWriter out = new IntWriter(output, window)) {
+         // current entry of every run, Long.MAX_VALUE once it is used up
+         long[] keys = new long[k];
+         for (int i = 0; i < k; i++) {
+            runs[i] = new RunReader(files.get(i), window);
+            keys[i] = runs[i].hasNext() ? runs[i].next() : Long.MAX_VALUE;
+         }
+         // leaves k to 2k - 1 are the runs, tree[0] holds the overall winner
+         int[] tree = new int[k];
+         long[] comparisons = new long[1];
+         tree[0] = playMatches(tree, keys, 1, comparisons);
+         
+         while (keys[tree[0]] != Long.MAX_VALUE) {
+            int winner = tree[0];
+            out.write((int)keys[winner]);
+            keys[winner] = runs[winner].hasNext() ? runs[winner].next() : Long.MAX_VALUE;
+            
+            // replay the matches from the winner's leaf up to the root
+            for (int node = (winner + k) / 2; node > 0; node /= 2) {
+               comparisons[0]++;
+               if (keys[tree[node]] < keys[winner]) {
+                  int loser = winner;
+                  winner = tree[node];
+                  tree[node] = loser;
+               }
+            }
+            tree[0] = winner;
+         }
+         return comparisons[0];
+      } finally {
+         for (RunReader run : runs) {
+            if (run != null) {
+               run.close();
+            }
+         }
+      }
+   }
+   
+   // play the matches of the loser tree below the given node, storing the
+   // loser at every internal node, return the run that wins at the node
+   private static int playMatches(int[] tree, long[] keys, int node, long[] comparisons) {
+      int k = keys.length;
+      if (node >= k) {
+         return node - k;
+      }
+      int left = playMatches(tree, keys, 2 * node, comparisons);
+      int right = playMatches(tree, keys, 2 * node + 1, comparisons);
+      comparisons[0]++;
+      if (keys[right] < keys[left]) {
+         tree[node] = left;
+         return right;
+      }
+      tree[node] = right;
+      return left;
+   }
+   
+   // return the size in bytes of the read window and of the write buffer
+   // used while sorting chunks within the given memory budget
+   private static int chunkWindow(long memoryBytes) {
+      return (int)Math.max(MIN_READ_AHEAD, Math.min(memoryBytes / 16, MAP_WINDOW)) & ~3;
+   }
+   
+   // read length little-endian ints starting at the given file offset into
+   // the array through mapped windows of the given number of bytes
+   private static void readInts(FileChannel channel, long offset, int[] array, int length, int window)
+         throws IOException {
+      for (int i = 0; i < length; ) {
+         int count = Math.min(length - i, window / 4);
+         MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, offset + 4L * i, 4L * count);
+         map.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(array, i, count);
+         i += count;
+      }
+   }
+   
+   // write the first length entries of the array to the file as
+   // little-endian ints through a buffer of the given number of bytes
+   private static void writeInts(File file, int[] array, int length, int window) throws IOException {
+      try (IntWriter out = new IntWriter(file, window)) {
+         for (int i = 0; i < length; i++) {
+            out.write(array[i]);
+         }
+      }
+   }
+   
+   // return a new temporary run file in the given directory, removed on exit
+   private static File newRun(File directory) throws IOException {
+      File run = File.createTempFile("sortrun", ".bin", directory);
+      run.deleteOnExit();
+      return run;
+   }
+   
+   // delete the temporary run files
+   private static void deleteRuns(List<File> runs) {
+      for (File run : runs) {
+         run.delete();
+      }
+   }
+   
+   // sequential reader of a run file of little-endian ints, mapping one
+   // window of the file at a time and loading it ahead of the merge
+   private static class RunReader implements Closeable {
+      private final FileChannel channel;
+      private final long size;
+      private final int window;
+      private long position;              // file offset past the mapped window
+      private IntBuffer ints;
+      
+      // construct a reader of the given file mapping windows of the given size
+      public RunReader(File file, int window) throws IOException {
+         this.channel = new RandomAccessFile(file, "r").getChannel();
+         this.size = channel.size() & ~3L;
+         this.window = window;
+         this.ints = IntBuffer.allocate(0);
+      }
+      
+      // return true if there is another entry, mapping the next window
+      // of the file when the current one is used up
+      public boolean hasNext() throws IOException {
+         if (ints.hasRemaining()) {
+            return true;
+         }
+         if (position >= size) {
+            return false;
+         }
+         long length = Math.min(window, size - position);
+         MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+         map.load();
+         ints = map.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+         position += length;
+         return true;
+      }
+      
+      // return the next entry, hasNext must have returned true
+      public int next() {
+         return ints.get();
+      }
+      
+      // close the underlying file
+      public void close() throws IOException {
+         channel.close();
+      }
+   }
+   
+   // buffered writer of little-endian ints to a file
+   private static class IntWriter implements Closeable {
+      private final FileChannel channel;
+      private final ByteBuffer bytes;
+      
+      // construct a writer truncating the given file, buffering the given
+      // number of bytes
+      public IntWriter(File file, int bufferSize) throws IOException {
+         RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         raf.setLength(0);
+         this.channel = raf.getChannel();
+         this.bytes = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      
+      // write one int, flushing the buffer when it is full
+      public void write(int value) throws IOException {
+         if (bytes.remaining() < 4) {
+            flush();
+         }
+         bytes.putInt(value);
+      }
+      
+      // write out the buffered bytes
+      public void flush() throws IOException {
+         bytes.flip();
+         while (bytes.hasRemaining()) {
+            channel.write(bytes);
+         }
+         bytes.clear();
+      }
+      
+      // flush and close the underlying file
+      public void close() throws IOException {
+         flush();
+         channel.close();
+      }
+   }
+   
+   // return a new buffer of the given length for a sort, counting it as
+   // auxiliary memory in stats
+   private static int[] newBuffer(int length, SortStats stats) {
+      countAllocation(stats, length);
+      return new int[length];
+   }
+   
+   // add n comparisons between entries to the stats, if the run is counted,
+   // the counting helpers are small enough for the JIT to inline, so a sort
+   // always run with null stats has the counting compiled away
+   private static void countComparisons(SortStats stats, long n) {
+      if (stats != null) {
+         stats.comparisons += n;
+      }
+   }
+   
+   // add n entries moved to the stats, if the run is counted
+   private static void countMoves(SortStats stats, long n) {
+      if (stats != null) {
+         stats.moves += n;
+      }
+   }
+   
+   // add an auxiliary int array of the given length to the stats, if the
+   // run is counted
+   private static void countAllocation(SortStats stats, long length) {
+      if (stats != null) {
+         stats.auxBytes += 4 * length;
+      }
+   }
+   
+   // add n passes over the whole array to the stats, if the run is counted
+   private static void countPasses(SortStats stats, long n) {
+      if (stats != null) {
+         stats.passes += n;
+      }
+   }
+   
+   // return the start time of a counted run, 0 if the run is not counted
+   private static long startTime(SortStats stats) {
+      return stats == null ? 0 : System.nanoTime();
+   }
+   
+   // add the time since the given start to the stats, if the run is counted
+   private static void stopTime(SortStats stats, long start) {
+      if (stats != null) {
+         stats.nanos += System.nanoTime() - start;
+      }
+   }
+   
+   // display the counters of a sort run
+   public static void printStats(SortStats stats) {
+      System.out.println("Num Comparisons: " + stats.comparisons);
+      System.out.println("Num Moves: " + stats.moves);
+      System.out.println("Aux Bytes: " + stats.auxBytes);
+      System.out.println("Num Passes: " + stats.passes);
+      System.out.printf("Time (ms): %.3f%n", stats.nanos / 1e6);
    }
    
    // print elements of array if it's printable per the given boolean value,
@@ -0,0 +1,252 @@
+// File : TakeoffBenchmark.java
+// Author : Yichuan Yin, yiny@wwu.edu
+// Description : Benchmark harness for TakeoffQueue. Generates seeded synthetic
+// request files (request rate, burstiness, passenger count distribution and
+// size are configurable) and measures push/pop throughput of every queue
+// engine and end-to-end runtime of the three prioritization schemes, with
+// allocation per operation taken from the thread allocation counter.
+//
+// usage : java TakeoffBenchmark generate <file> <flights> [options]
+//         java TakeoffBenchmark run [options]
+// options : --seed=N --rate=REQUESTS_PER_MINUTE --burst=PROBABILITY
+//           --passengers=uniform|bimodal|heavy --max-passengers=N
+//           --sizes=N,N,... --engines=heap,packed,... --schemes=1,2,3
+//           --warmup=N --iterations=N
+
+import java.util.*;                 // for Random & List
+import java.io.*;                   // for File & Writer
+import java.lang.management.*;      // for ManagementFactory
+
+public class TakeoffBenchmark {
+
+   // default flight counts benchmarked (10^3 to 10^6, up to 10^7 with --sizes)
+   public static final String DEFAULT_SIZES = "1000,10000,100000,1000000";
+   // default queue engines benchmarked
+   public static final String DEFAULT_ENGINES = "heap,packed,indexed,ring,bucket";
+   // thread bean of the JVM, counts bytes allocated per thread
+   private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+   // seeded generator of takeoff requests in the TakeoffQueue input format
+   public static class TrafficGenerator {
+      private final Random rand;
+      private final double rate;          // mean requests per minute
+      private final double burst;         // probability a request starts a burst
+      private final String passengers;    // passenger count distribution
+      private final int maxPassengers;
+      private int time;                   // time of the last request (minutes)
+      private int burstLeft;              // requests left in the current burst
+      private int count;                  // requests generated so far
+
+      // construct a generator given its seed, mean request rate per minute,
+      // probability of a burst of same-minute requests, passenger count
+      // distribution ("uniform", "bimodal" or "heavy") and max passenger count
+      public TrafficGenerator(long seed, double rate, double burst, String passengers,
+            int maxPassengers) {
+         this.rand = new Random(seed);
+         this.rate = rate;
+         this.burst = burst;
+         this.passengers = passengers;
+         this.maxPassengers = maxPassengers;
+      }
+
+      // construct a generator with the options given on the command line
+      public static TrafficGenerator fromOptions(String[] args) {
+         return new TrafficGenerator(
+            Long.parseLong(TakeoffQueue.option(args, "seed", "1")),
+            Double.parseDouble(TakeoffQueue.option(args, "rate", "0.5")),
+            Double.parseDouble(TakeoffQueue.option(args, "burst", "0.05")),
+            TakeoffQueue.option(args, "passengers", "uniform"),
+            Integer.parseInt(TakeoffQueue.option(args, "max-passengers", "600")));
+      }
+
+      // return time (in minutes) of the next request, inter-arrival times are
+      // exponential with the mean rate, except inside a burst of 2 to 10
+      // requests which all arrive in the same minute
+      public int nextTime() {
+         if (burstLeft > 0) {
+            burstLeft--;
+         } else if (rand.nextDouble() < burst) {
+            burstLeft = 1 + rand.nextInt(9);
+         } else {
+            time += (int)(-Math.log(1 - rand.nextDouble()) / rate);
+         }
+         return time;
+      }
+
+      // return passenger count of the next request
+      public int nextPassengerCount() {
+         switch (passengers) {
+            // regional jets and wide-bodies
+            case "bimodal" :  return rand.nextInt(4) == 0
+                                 ? Math.min(maxPassengers, 250 + rand.nextInt(150))
+                                 : Math.min(maxPassengers, 50 + rand.nextInt(30));
+            // many small flights, few very large ones (pareto)
+            case "heavy" :    return Math.min(maxPassengers, (int)(20 / Math.pow(1 - rand.nextDouble(), 0.8)));
+            case "uniform" :  return rand.nextInt(maxPassengers + 1);
+            default :         throw new IllegalArgumentException("unknown distribution: " + passengers);
+         }
+      }
+
+      // return the next request as a Flight (order numbers from 1, value
+      // is the negated passenger count as in full prioritization)
+      public TakeoffQueue.Flight nextFlight() {
+         count++;
+         int requestTime = nextTime();
+         TakeoffQueue.Flight flight = new TakeoffQueue.Flight("FL" + count, count, -nextPassengerCount());
+         flight.requestTime = requestTime;
+         return flight;
+      }
+
+      // write the given number of requests to a file, one per line as
+      // "<name> requests takeoff <hour:minute> <count>"
+      public void write(File file, int flights) throws IOException {
+         try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < flights; i++) {
+               TakeoffQueue.Flight flight = nextFlight();
+               int hour = flight.requestTime / 60 % 12;
+               int minute = flight.requestTime % 60;
+               out.write(flight.name);
+               out.write(" requests takeoff ");
+               out.write(String.valueOf(hour == 0 ? 12 : hour));
+               out.write(minute < 10 ? ":0" : ":");
+               out.write(String.valueOf(minute));
+               out.write(' ');
+               out.write(String.valueOf(-flight.val));
+               out.write('\n');
+            }
+         }
+      }
+   }
+
+   // a benchmark body run once per iteration, returns the number of operations
+   public interface Body {
+      long run() throws IOException;
+   }
+
+   // main routine
+   public static void main(String[] args) throws IOException {
+      String mode = TakeoffQueue.argument(args, 0, "run");
+
+      switch (mode) {
+
+         // write a synthetic request file
+         case "generate" : TrafficGenerator generator = TrafficGenerator.fromOptions(args);
+                           generator.write(new File(TakeoffQueue.argument(args, 1, "requests.txt")),
+                              Integer.parseInt(TakeoffQueue.argument(args, 2, "1000")));
+                           break;
+
+         // run the benchmarks
+         case "run" :      runAll(args);
+                           break;
+
+         default :         throw new IllegalArgumentException("unknown mode: " + mode);
+      }
+   }
+
+   // run push/pop benchmarks for every engine and size, then end-to-end
+   // benchmarks for every scheme and size, printing one result per line
+   public static void runAll(String[] args) throws IOException {
+      int warmup = Integer.parseInt(TakeoffQueue.option(args, "warmup", "3"));
+      int iterations = Integer.parseInt(TakeoffQueue.option(args, "iterations", "5"));
+      String[] engines = TakeoffQueue.option(args, "engines", DEFAULT_ENGINES).split(",");
+      String[] schemes = TakeoffQueue.option(args, "schemes", "1,2,3").split(",");
+
+      System.out.printf("%-12s %-8s %-10s %14s %12s %10s%n",
+         "benchmark", "engine", "size", "ops/s", "ns/op", "B/op");
+      for (String size : TakeoffQueue.option(args, "sizes", DEFAULT_SIZES).split(",")) {
+         int flights = Integer.parseInt(size);
+
+         // push/pop throughput over flights made up front by the generator
+         TrafficGenerator generator = TrafficGenerator.fromOptions(args);
+         TakeoffQueue.Flight[] traffic = new TakeoffQueue.Flight[flights];
+         for (int i = 0; i < flights; i++) {
+            traffic[i] = generator.nextFlight();
+         }
+         for (String engine : engines) {
+            measure("push/pop", engine, flights, warmup, iterations, () -> pushPop(engine, traffic));
+         }
+
+         // end-to-end scheme runtime over a generated request file
+         File file = File.createTempFile("takeoff", ".txt");
+         file.deleteOnExit();
+         TrafficGenerator.fromOptions(args).write(file, flights);
+         for (String scheme : schemes) {
+            String engine = TakeoffQueue.defaultEngine(scheme);
+            measure("scheme " + scheme, engine, flights, warmup, iterations,
+               () -> runScheme(scheme, engine, file, flights));
+         }
+         file.delete();
+      }
+   }
+
+   // offer every flight to a new queue of the given engine, then poll
+   // them all as the schemes do (a packed heap through its primitive API),
+   // return the number of operations
+   public static long pushPop(String engine, TakeoffQueue.Flight[] traffic) {
+      TakeoffQueue.FlightQueue queue = TakeoffQueue.newFlightQueue(engine);
+      TakeoffQueue.PackedFlightHeap packed = TakeoffQueue.packed(queue);
+      for (TakeoffQueue.Flight flight : traffic) {
+         TakeoffQueue.offerFlight(queue, flight.name, flight.order, flight.val, flight.requestTime);
+      }
+      while (!queue.isEmpty()) {
+         if (packed != null) {
+            packed.pollId();
+         } else {
+            queue.poll();
+         }
+      }
+      return 2L * traffic.length;
+   }
+
+   // run a prioritization scheme over a request file, discarding its output,
+   // return the number of flights
+   public static long runScheme(String scheme, String engine, File file, int flights)
+         throws IOException {
+      TakeoffQueue.FlightQueue queue = TakeoffQueue.newFlightQueue(engine);
+      TakeoffQueue.DepartureSink output = new TakeoffQueue.BufferedDepartureSink(OutputStream.nullOutputStream());
+      try (TakeoffQueue.RequestReader input = new TakeoffQueue.RequestReader(file)) {
+         switch (scheme) {
+            case "1" :  TakeoffQueue.simplePrioritization(queue, input, output);
+                        break;
+            case "2" :  TakeoffQueue.intermediatePrioritization(queue, input, output);
+                        break;
+            default :   TakeoffQueue.fullPrioritization(queue, input, output);
+                        break;
+         }
+      }
+      output.close();
+      return flights;
+   }
+
+   // run a benchmark body for the warmup iterations, then for the measured
+   // iterations, print mean throughput, time and bytes allocated per operation
+   public static void measure(String benchmark, String engine, int size, int warmup, int iterations,
+         Body body) throws IOException {
+      for (int i = 0; i < warmup; i++) {
+         body.run();
+      }
+      long operations = 0;
+      long nanos = 0;
+      long bytes = 0;
+      for (int i = 0; i < iterations; i++) {
+         long startBytes = allocatedBytes();
+         long start = System.nanoTime();
+         operations += body.run();
+         nanos += System.nanoTime() - start;
+         bytes += allocatedBytes() - startBytes;
+      }
+      operations = Math.max(operations, 1);
+      System.out.printf("%-12s %-8s %-10d %14.0f %12.1f %10.1f%n", benchmark, engine, size,
+         operations / (nanos / 1e9), (double)nanos / operations, (double)bytes / operations);
+   }
+
+   // return bytes allocated so far by the current thread, 0 if the JVM
+   // does not count them, the bean is looked up once so that reading the
+   // counter does not itself allocate
+   public static long allocatedBytes() {
+      if (THREADS instanceof com.sun.management.ThreadMXBean) {
+         return ((com.sun.management.ThreadMXBean)THREADS).getCurrentThreadAllocatedBytes();
+      }
+      return 0;
+   }
+}
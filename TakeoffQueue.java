@@ -5,79 +5,2393 @@
 // at different times from KSEA. Program expects a pre-ordered list of requests.
 // (implements a priority queue using a min-heap, attemps full prioritization)
 
-import java.util.*;  // for Scanner & Array
-import java.io.*;    // for File
+import java.util.*;              // for Arrays & Map
+import java.io.*;                // for File
+import java.nio.*;               // for MappedByteBuffer
+import java.nio.channels.*;      // for FileChannel
+import java.nio.charset.*;       // for StandardCharsets
+import java.util.concurrent.*;   // for BlockingQueue & CountDownLatch
+import java.util.concurrent.atomic.*;  // for AtomicInteger
 
 public class TakeoffQueue {
    
+   // record types (second word of an input line) handled by full prioritization
+   public static final String CANCEL_RECORD = "cancels";
+   public static final String UPDATE_RECORD = "updates";
+   public static final String EMERGENCY_RECORD = "declares";
+   // codes returned by RequestReader.recordType for each record type
+   public static final int TAKEOFF_REQUEST = 0;
+   public static final int CANCEL_REQUEST = 1;
+   public static final int UPDATE_REQUEST = 2;
+   public static final int EMERGENCY_REQUEST = 3;
+   
    // Flight class
    public static class Flight {
       public String name;  // name of flight
       public int order;    // order of request made
       public int val;      // value used for comparison
+      public int requestTime;    // time of request (full prioritization only)
+      public boolean emergency;  // takes off ahead of regular flights (full prioritization only)
+
+      // construct a Flight object given a name and a value for comparison
+      public Flight(String name, int val) {
+         this(name, -1, val);
+      }
+      
+      // construct a Flight object given a name, an order number,
+      // and a value for comparison
+      public Flight(String name, int order, int val) {
+         this.name = name;
+         this.order = order;
+         this.val = val;
+      }
+   }
+
+   // queue of flights waiting for takeoff, the flight returned by peek and poll
+   // is the one with the highest priority (see isHigherPriority)
+   public interface FlightQueue {
+      void offer(Flight flight);
+      Flight poll();
+      Flight peek();
+      int size();
+      boolean isEmpty();
+      // return the queued flights in no particular order
+      Flight[] snapshot();
+   }
+
+   // priority queue of flights backed by a growable min-heap array, slot 0 is
+   // unused so the heap index helpers below apply directly, the array doubles
+   // when full and (optionally) halves when a drain leaves it a quarter full
+   public static class FlightHeap implements FlightQueue {
+      public static final int DEFAULT_CAPACITY = 16;
+
+      private Flight[] heap;           // heap array (index 1 is the root)
+      private int size;                // number of flights in the heap
+      private final int minCapacity;   // never shrink below this capacity
+      private final boolean shrinkOnDrain;
+
+      // construct an empty heap with the default capacity, never shrinks
+      public FlightHeap() {
+         this(DEFAULT_CAPACITY, false);
+      }
+
+      // construct an empty heap given an initial capacity and
+      // whether the backing array should shrink as flights are removed
+      public FlightHeap(int initialCapacity, boolean shrinkOnDrain) {
+         this.minCapacity = Math.max(initialCapacity, 1);
+         this.heap = new Flight[minCapacity + 1];
+         this.shrinkOnDrain = shrinkOnDrain;
+      }
+
+      // return number of flights in the heap
+      public int size() {
+         return size;
+      }
+
+      // return true if there are no flights in the heap
+      public boolean isEmpty() {
+         return size == 0;
+      }
+
+      // return the flight with highest priority without removing it, null if empty
+      public Flight peek() {
+         return size == 0 ? null : heap[1];
+      }
+
+      // return the queued flights in heap order
+      public Flight[] snapshot() {
+         return Arrays.copyOfRange(heap, 1, size + 1);
+      }
+
+      // add one flight to the heap
+      public void offer(Flight flight) {
+
+         // double the backing array if it is full
+         if (size + 1 == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+         }
+         // place new flight at end of heap
+         size++;
+         heap[size] = flight;
+
+         // percolate up if value of parent is greater than child,
+         // if values are the same, order number will be compared
+         int i = size;
+         int moves = 0;
+         while (hasParent(i) && isHigherPriority(flight, heap[parent(i)])) {
+            heap[i] = heap[parent(i)];
+            i = parent(i);
+            moves++;
+         }
+         heap[i] = flight;
+         SchedulerMetrics.percolatedUp(moves);
+      }
+
+      // remove and return the flight at top of the heap, null if empty
+      public Flight poll() {
+         if (size == 0) {
+            return null;
+         }
+         Flight top = heap[1];
+
+         // replace first flight with last, then trim the heap
+         Flight last = heap[size];
+         heap[size] = null;
+         size--;
+
+         // percolate down if value of child is less than parent,
+         // if values are the same, order number will be compared
+         if (size > 0) {
+            int i = 1;
+            int moves = 0;
+            int child = smallerChild(i);
+            while (child != -1 && isHigherPriority(heap[child], last)) {
+               heap[i] = heap[child];
+               i = child;
+               child = smallerChild(i);
+               moves++;
+            }
+            heap[i] = last;
+            SchedulerMetrics.percolatedDown(moves);
+         }
+
+         // halve the backing array if it is mostly empty
+         if (shrinkOnDrain && heap.length > minCapacity + 1 && size < (heap.length - 1) / 4) {
+            heap = Arrays.copyOf(heap, Math.max((heap.length - 1) / 2, minCapacity) + 1);
+         }
+
+         return top;
+      }
+
+      // given index of an element in the heap, return index
+      // of the smaller child, return -1 if it has no children
+      private int smallerChild(int i) {
+         int left = leftChild(i);
+         int right = rightChild(i);
+         if (right <= size) {
+            return isHigherPriority(heap[left], heap[right]) ? left : right;
+         } else if (left <= size) {
+            return left;
+         } else {
+            return -1;
+         }
+      }
+   }
+
+   // priority queue of flights kept as primitive arrays: each heap slot holds
+   // the flight's (val, order) pair packed into one long key, so a comparison
+   // is a single long compare, and a parallel int id into a table of names,
+   // ids of removed flights are recycled so the name table stays heap sized,
+   // a polled flight's name stays in the table until its id is reused, so
+   // the table can hold up to its capacity of stale Strings
+   public static class PackedFlightHeap implements FlightQueue {
+      private long[] keys;       // packed keys (index 1 is the root)
+      private int[] ids;         // flight id of each heap slot
+      private int size;          // number of flights in the heap
+      private String[] names;    // flight name by flight id
+      private int[] requestTimes;   // request time by flight id
+      private int[] freeIds;     // stack of recycled flight ids
+      private int freeCount;     // number of recycled flight ids
+      private int nextId;        // lowest id never handed out
+
+      // construct an empty heap with the default capacity
+      public PackedFlightHeap() {
+         this(FlightHeap.DEFAULT_CAPACITY);
+      }
+
+      // construct an empty heap given an initial capacity
+      public PackedFlightHeap(int initialCapacity) {
+         int capacity = Math.max(initialCapacity, 1);
+         keys = new long[capacity + 1];
+         ids = new int[capacity + 1];
+         names = new String[capacity];
+         requestTimes = new int[capacity];
+         freeIds = new int[capacity];
+      }
+
+      // return number of flights in the heap
+      public int size() {
+         return size;
+      }
+
+      // return true if there are no flights in the heap
+      public boolean isEmpty() {
+         return size == 0;
+      }
+
+      // add one flight to the heap, throw an IllegalArgumentException
+      // for an emergency flight, which the packed key can't order
+      public void offer(Flight flight) {
+         if (flight.emergency) {
+            throw new IllegalArgumentException("packed heap can't queue emergency flight: " + flight.name);
+         }
+         offer(flight.name, flight.order, flight.val, flight.requestTime);
+      }
+
+      // add one flight to the heap given its name, order number, value for
+      // comparison and request time, return the id assigned to the flight
+      public int offer(String name, int order, int val, int requestTime) {
+         int id = offer(name, order, val);
+         requestTimes[id] = requestTime;
+         return id;
+      }
+
+      // add one flight to the heap given its name, order number
+      // and value for comparison, return the id assigned to the flight
+      public int offer(String name, int order, int val) {
+         int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+         if (id == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+            requestTimes = Arrays.copyOf(requestTimes, requestTimes.length * 2);
+         }
+         names[id] = name;
+         requestTimes[id] = 0;
+         offerId(id, packKey(val, order));
+         return id;
+      }
+
+      // return the flight with highest priority without removing it, null if empty
+      public Flight peek() {
+         return size == 0 ? null : toFlight(ids[1], keys[1]);
+      }
+
+      // return the queued flights in heap order
+      public Flight[] snapshot() {
+         Flight[] flights = new Flight[size];
+         for (int i = 1; i <= size; i++) {
+            flights[i - 1] = toFlight(ids[i], keys[i]);
+         }
+         return flights;
+      }
+
+      // remove and return the flight at top of the heap, null if empty
+      public Flight poll() {
+         if (size == 0) {
+            return null;
+         }
+         Flight flight = toFlight(ids[1], keys[1]);
+         pollId();
+         return flight;
+      }
+
+      // return a Flight object for the given flight id and key
+      private Flight toFlight(int id, long key) {
+         Flight flight = new Flight(names[id], keyOrder(key), keyVal(key));
+         flight.requestTime = requestTimes[id];
+         return flight;
+      }
+
+      // return packed key of the flight at top of the heap (heap must not be empty)
+      public long peekKey() {
+         return keys[1];
+      }
+
+      // return id of the flight at top of the heap (heap must not be empty)
+      public int peekId() {
+         return ids[1];
+      }
+
+      // return name of the flight with the given id
+      public String nameOf(int id) {
+         return names[id];
+      }
+
+      // return request time of the flight with the given id
+      public int requestTimeOf(int id) {
+         return requestTimes[id];
+      }
+
+      // remove the flight at top of the heap (heap must not be empty)
+      // and return its id, the id (and the name and request time read
+      // through it) stays valid until the next offer, which may reuse it
+      public int pollId() {
+         int top = ids[1];
+         long lastKey = keys[size];
+         int lastId = ids[size];
+         size--;
+
+         // percolate the last flight down from the root
+         int i = 1;
+         int moves = 0;
+         int child = 2 * i;
+         while (child <= size) {
+            if (child < size && keys[child + 1] < keys[child]) {
+               child++;
+            }
+            if (keys[child] >= lastKey) {
+               break;
+            }
+            keys[i] = keys[child];
+            ids[i] = ids[child];
+            i = child;
+            child = 2 * i;
+            moves++;
+         }
+         keys[i] = lastKey;
+         ids[i] = lastId;
+         SchedulerMetrics.percolatedDown(moves);
+
+         // recycle the id of the removed flight, its name is overwritten
+         // when the id is handed out again
+         if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+         }
+         freeIds[freeCount++] = top;
+         return top;
+      }
+
+      // place a flight id with the given key into the heap
+      private void offerId(int id, long key) {
+         if (size + 1 == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            ids = Arrays.copyOf(ids, ids.length * 2);
+         }
+         size++;
+
+         // percolate up while the parent key is greater
+         int i = size;
+         int moves = 0;
+         while (i > 1 && key < keys[i / 2]) {
+            keys[i] = keys[i / 2];
+            ids[i] = ids[i / 2];
+            i /= 2;
+            moves++;
+         }
+         keys[i] = key;
+         ids[i] = id;
+         SchedulerMetrics.percolatedUp(moves);
+      }
+   }
+
+   // first-come-first-served queue of flights in a circular array that doubles
+   // when full, flights leave in the order they were offered, so it matches
+   // the heaps only when flights are offered in priority order (e.g. simple
+   // prioritization, where the value is the order of the request)
+   public static class FlightRing implements FlightQueue {
+      private Flight[] ring;     // circular buffer of flights
+      private int head;          // index of the first flight
+      private int size;          // number of flights in the ring
+
+      // construct an empty ring with the default capacity
+      public FlightRing() {
+         this(FlightHeap.DEFAULT_CAPACITY);
+      }
+
+      // construct an empty ring given an initial capacity
+      public FlightRing(int initialCapacity) {
+         ring = new Flight[Math.max(initialCapacity, 1)];
+      }
+
+      // return number of flights in the ring
+      public int size() {
+         return size;
+      }
+
+      // return true if there are no flights in the ring
+      public boolean isEmpty() {
+         return size == 0;
+      }
+
+      // add one flight to the end of the ring
+      public void offer(Flight flight) {
+         if (size == ring.length) {
+            // unroll the ring into a buffer twice as large
+            Flight[] larger = new Flight[ring.length * 2];
+            System.arraycopy(ring, head, larger, 0, ring.length - head);
+            System.arraycopy(ring, 0, larger, ring.length - head, head);
+            ring = larger;
+            head = 0;
+         }
+         int tail = head + size;
+         ring[tail < ring.length ? tail : tail - ring.length] = flight;
+         size++;
+      }
+
+      // return the first flight without removing it, null if empty
+      public Flight peek() {
+         return size == 0 ? null : ring[head];
+      }
+
+      // return the queued flights from first to last
+      public Flight[] snapshot() {
+         Flight[] flights = new Flight[size];
+         for (int i = 0; i < size; i++) {
+            int index = head + i;
+            flights[i] = ring[index < ring.length ? index : index - ring.length];
+         }
+         return flights;
+      }
+
+      // remove and return the first flight, null if empty
+      public Flight poll() {
+         if (size == 0) {
+            return null;
+         }
+         Flight flight = ring[head];
+         ring[head] = null;
+         head = head + 1 == ring.length ? 0 : head + 1;
+         size--;
+         return flight;
+      }
+   }
+
+   // bucket queue of flights indexed by passenger count (the negated value),
+   // each bucket is a FIFO list so flights with the same passenger count leave
+   // in the order they were offered, the lists are linked through parallel
+   // node arrays and a bitmap of non-empty buckets finds the fullest one 64
+   // buckets at a time, so offer and poll take O(1) for bounded counts,
+   // counts of MAX_BUCKETS or more and negative counts go to an overflow heap
+   // whose top is compared with the fullest bucket's head, like FlightRing it assumes flights arrive in order of their
+   // order number
+   public static class BucketFlightQueue implements FlightQueue {
+      public static final int MAX_BUCKETS = 1 << 20;
+      private static final int NONE = -1;
+
+      private int[] bucketHead;     // first node of each bucket, NONE if empty
+      private int[] bucketTail;     // last node of each bucket
+      private long[] nonEmpty;      // bit set of buckets holding flights
+      private int top = NONE;       // highest non-empty bucket
+      private Flight[] nodeFlight;  // flight held by each node
+      private int[] nodeNext;       // next node in the bucket (or free list)
+      private int freeNode = NONE;  // first node of the free list
+      private int nextNode;         // lowest node never handed out
+      private int size;             // number of flights in the queue
+      private final FlightHeap overflow = new FlightHeap();   // flights outside the buckets
+
+      // construct an empty bucket queue with the default capacity
+      public BucketFlightQueue() {
+         this(FlightHeap.DEFAULT_CAPACITY, 1024);
+      }
+
+      // construct an empty bucket queue given an initial capacity
+      // and an initial number of buckets (highest passenger count + 1)
+      public BucketFlightQueue(int initialCapacity, int initialBuckets) {
+         nodeFlight = new Flight[Math.max(initialCapacity, 1)];
+         nodeNext = new int[nodeFlight.length];
+         int buckets = Math.max((Math.min(initialBuckets, MAX_BUCKETS) + 63) / 64 * 64, 64);
+         bucketHead = new int[buckets];
+         bucketTail = new int[buckets];
+         Arrays.fill(bucketHead, NONE);
+         nonEmpty = new long[buckets / 64];
+      }
+
+      // return number of flights in the queue
+      public int size() {
+         return size;
+      }
+
+      // return true if there are no flights in the queue
+      public boolean isEmpty() {
+         return size == 0;
+      }
+
+      // add one flight to the end of the bucket for its passenger count, or
+      // to the overflow heap if it has no bucket, throw an
+      // IllegalArgumentException if it is an emergency flight
+      public void offer(Flight flight) {
+         if (flight.emergency) {
+            throw new IllegalArgumentException("bucket queue can't queue emergency flight: " + flight.name);
+         }
+         int bucket = -flight.val;
+         if (flight.val > 0 || bucket >= MAX_BUCKETS) {
+            overflow.offer(flight);
+            size++;
+            return;
+         }
+         if (bucket >= bucketHead.length) {
+            growBuckets(bucket);
+         }
+
+         // take a node from the free list, or a new one
+         int node;
+         if (freeNode != NONE) {
+            node = freeNode;
+            freeNode = nodeNext[node];
+         } else {
+            if (nextNode == nodeFlight.length) {
+               nodeFlight = Arrays.copyOf(nodeFlight, nodeFlight.length * 2);
+               nodeNext = Arrays.copyOf(nodeNext, nodeNext.length * 2);
+            }
+            node = nextNode++;
+         }
+         nodeFlight[node] = flight;
+         nodeNext[node] = NONE;
+
+         // append the node to its bucket
+         if (bucketHead[bucket] == NONE) {
+            bucketHead[bucket] = node;
+            nonEmpty[bucket >>> 6] |= 1L << bucket;
+         } else {
+            nodeNext[bucketTail[bucket]] = node;
+         }
+         bucketTail[bucket] = node;
+         top = Math.max(top, bucket);
+         size++;
+      }
+
+      // return the flight with highest priority without removing it, null if empty
+      public Flight peek() {
+         if (overflowFirst()) {
+            return overflow.peek();
+         }
+         return size == 0 ? null : nodeFlight[bucketHead[top]];
+      }
+
+      // return true if the next flight to leave is the top of the overflow heap
+      private boolean overflowFirst() {
+         return !overflow.isEmpty()
+            && (top == NONE || isHigherPriority(overflow.peek(), nodeFlight[bucketHead[top]]));
+      }
+
+      // return the overflow flights in heap order, then the other
+      // queued flights bucket by bucket, from the fullest
+      public Flight[] snapshot() {
+         Flight[] flights = Arrays.copyOf(overflow.snapshot(), size);
+         int i = overflow.size();
+         for (int bucket = top; bucket != NONE; bucket = highestBucket(bucket)) {
+            for (int node = bucketHead[bucket]; node != NONE; node = nodeNext[node]) {
+               flights[i++] = nodeFlight[node];
+            }
+         }
+         return flights;
+      }
+
+      // remove and return the flight with highest priority, null if empty
+      public Flight poll() {
+         if (size == 0) {
+            return null;
+         }
+         if (overflowFirst()) {
+            size--;
+            return overflow.poll();
+         }
+         int node = bucketHead[top];
+         Flight flight = nodeFlight[node];
+         bucketHead[top] = nodeNext[node];
+
+         // return the node to the free list
+         nodeFlight[node] = null;
+         nodeNext[node] = freeNode;
+         freeNode = node;
+         size--;
+
+         // bucket drained, find the next non-empty bucket below it
+         if (bucketHead[top] == NONE) {
+            nonEmpty[top >>> 6] &= ~(1L << top);
+            top = highestBucket(top);
+         }
+         return flight;
+      }
+
+      // return highest non-empty bucket below the given bucket, NONE if none
+      private int highestBucket(int bucket) {
+         int word = bucket >>> 6;
+         long bits = nonEmpty[word] & ((1L << bucket) - 1);
+         while (bits == 0) {
+            if (word == 0) {
+               return NONE;
+            }
+            word--;
+            bits = nonEmpty[word];
+         }
+         return word * 64 + 63 - Long.numberOfLeadingZeros(bits);
+      }
+
+      // enlarge the bucket arrays to hold the given bucket (below MAX_BUCKETS)
+      private void growBuckets(int bucket) {
+         int buckets = bucketHead.length;
+         while (buckets <= bucket) {
+            buckets *= 2;
+         }
+         int oldBuckets = bucketHead.length;
+         bucketHead = Arrays.copyOf(bucketHead, buckets);
+         bucketTail = Arrays.copyOf(bucketTail, buckets);
+         Arrays.fill(bucketHead, oldBuckets, buckets, NONE);
+         nonEmpty = Arrays.copyOf(nonEmpty, buckets / 64);
+      }
+   }
+
+   // priority queue of flights which can also be changed while flights wait
+   // in it, flights are identified by name, when a name is queued more than
+   // once the lookups act on the copy queued earliest
+   public interface IndexedFlightQueue extends FlightQueue {
+      boolean contains(String name);
+      Flight get(String name);
+      Flight cancel(String name);
+      boolean updatePriority(String name, int val);
+      boolean declareEmergency(String name);
+   }
+
+   // min-heap of flight ids with a position map from flight id to heap slot,
+   // so a queued flight can be found, cancelled or re-prioritized in O(log n),
+   // flight names map to ids which are recycled once a flight leaves the heap,
+   // the copies of a name queued more than once are chained in order of offer
+   // through circular linked lists of ids, so the earliest copy is found and
+   // any copy is unlinked in O(1)
+   public static class IndexedFlightHeap implements IndexedFlightQueue {
+      private int[] heap;                      // flight ids (index 1 is the root)
+      private int size;                        // number of flights in the heap
+      private Flight[] flights;                // flight by flight id
+      private int[] slot;                      // heap index by flight id
+      private int[] nextCopy;                  // next id queued with the same name
+      private int[] previousCopy;              // previous id queued with the same name
+      private final Map<String, Integer> idByName = new HashMap<String, Integer>();  // earliest copy
+      private int[] freeIds;                   // stack of recycled flight ids
+      private int freeCount;                   // number of recycled flight ids
+      private int nextId;                      // lowest id never handed out
+
+      // construct an empty heap with the default capacity
+      public IndexedFlightHeap() {
+         this(FlightHeap.DEFAULT_CAPACITY);
+      }
+
+      // construct an empty heap given an initial capacity
+      public IndexedFlightHeap(int initialCapacity) {
+         int capacity = Math.max(initialCapacity, 1);
+         heap = new int[capacity + 1];
+         flights = new Flight[capacity];
+         slot = new int[capacity];
+         nextCopy = new int[capacity];
+         previousCopy = new int[capacity];
+         freeIds = new int[capacity];
+      }
+
+      // return number of flights in the heap
+      public int size() {
+         return size;
+      }
+
+      // return true if there are no flights in the heap
+      public boolean isEmpty() {
+         return size == 0;
+      }
+
+      // return true if a flight with the given name is in the heap
+      public boolean contains(String name) {
+         return idByName.containsKey(name);
+      }
+
+      // return the queued flight with the given name (the earliest
+      // copy if queued more than once), null if not queued
+      public Flight get(String name) {
+         Integer id = idByName.get(name);
+         return id == null ? null : flights[id];
+      }
+
+      // return the flight with highest priority without removing it, null if empty
+      public Flight peek() {
+         return size == 0 ? null : flights[heap[1]];
+      }
+
+      // return the queued flights in heap order
+      public Flight[] snapshot() {
+         Flight[] queued = new Flight[size];
+         for (int i = 1; i <= size; i++) {
+            queued[i - 1] = flights[heap[i]];
+         }
+         return queued;
+      }
+
+      // add one flight to the heap, a flight with the same name as a queued
+      // one is queued too and chained after it
+      public void offer(Flight flight) {
+         int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+         if (id == flights.length) {
+            flights = Arrays.copyOf(flights, flights.length * 2);
+            slot = Arrays.copyOf(slot, slot.length * 2);
+            nextCopy = Arrays.copyOf(nextCopy, nextCopy.length * 2);
+            previousCopy = Arrays.copyOf(previousCopy, previousCopy.length * 2);
+         }
+         if (size + 1 == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+         }
+         flights[id] = flight;
+         Integer first = idByName.putIfAbsent(flight.name, id);
+         if (first == null) {
+            nextCopy[id] = id;
+            previousCopy[id] = id;
+         } else {
+            // append after the last copy, which precedes the first
+            int last = previousCopy[first];
+            nextCopy[last] = id;
+            previousCopy[id] = last;
+            nextCopy[id] = first;
+            previousCopy[first] = id;
+         }
+         size++;
+         place(id, size);
+         percolateUp(size);
+      }
+
+      // remove and return the flight at top of the heap, null if empty
+      public Flight poll() {
+         return size == 0 ? null : removeAt(1);
+      }
+
+      // remove the flight with the given name (the earliest copy) from the
+      // heap, return the removed flight, null if it is not queued
+      public Flight cancel(String name) {
+         Integer id = idByName.get(name);
+         return id == null ? null : removeAt(slot[id]);
+      }
+
+      // change the value for comparison of the queued flight with the given
+      // name (the earliest copy), its order number and emergency are kept,
+      // return false if it is not queued
+      public boolean updatePriority(String name, int val) {
+         Integer id = idByName.get(name);
+         if (id == null) {
+            return false;
+         }
+         Flight flight = flights[id];
+         int oldVal = flight.val;
+         flight.val = val;
+         if (val < oldVal) {
+            percolateUp(slot[id]);
+         } else {
+            percolateDown(slot[id]);
+         }
+         return true;
+      }
+
+      // mark the queued flight with the given name (the earliest copy) as an
+      // emergency, return false if it is not queued
+      public boolean declareEmergency(String name) {
+         Integer id = idByName.get(name);
+         if (id == null) {
+            return false;
+         }
+         if (!flights[id].emergency) {
+            flights[id].emergency = true;
+            percolateUp(slot[id]);
+         }
+         return true;
+      }
+
+      // remove the flight at the given heap index and return it
+      private Flight removeAt(int i) {
+         int id = heap[i];
+         Flight flight = flights[id];
+
+         // move last flight into the hole, then restore heap order around it
+         int last = heap[size];
+         size--;
+         if (i <= size) {
+            place(last, i);
+            percolateUp(i);
+            percolateDown(slot[last]);
+         }
+
+         // forget the removed flight and recycle its id
+         flights[id] = null;
+         forget(flight.name, id);
+         if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+         }
+         freeIds[freeCount++] = id;
+         return flight;
+      }
+
+      // unlink the id of a flight which left the heap from the copies of its
+      // name, the next copy becomes the earliest if it was the earliest
+      private void forget(String name, int id) {
+         int next = nextCopy[id];
+         if (next == id) {
+            idByName.remove(name);
+            return;
+         }
+         int previous = previousCopy[id];
+         nextCopy[previous] = next;
+         previousCopy[next] = previous;
+         if (idByName.get(name) == id) {
+            idByName.put(name, next);
+         }
+      }
+
+      // percolate the flight at the given heap index up while it has
+      // higher priority than its parent
+      private void percolateUp(int i) {
+         int id = heap[i];
+         int moves = 0;
+         while (hasParent(i) && isHigherPriority(flights[id], flights[heap[parent(i)]])) {
+            place(heap[parent(i)], i);
+            i = parent(i);
+            moves++;
+         }
+         place(id, i);
+         SchedulerMetrics.percolatedUp(moves);
+      }
+
+      // percolate the flight at the given heap index down while a child
+      // has higher priority
+      private void percolateDown(int i) {
+         int id = heap[i];
+         int moves = 0;
+         int child = leftChild(i);
+         while (child <= size) {
+            if (child < size && isHigherPriority(flights[heap[child + 1]], flights[heap[child]])) {
+               child++;
+            }
+            if (!isHigherPriority(flights[heap[child]], flights[id])) {
+               break;
+            }
+            place(heap[child], i);
+            i = child;
+            child = leftChild(i);
+            moves++;
+         }
+         place(id, i);
+         SchedulerMetrics.percolatedDown(moves);
+      }
+
+      // put a flight id at the given heap index and record its position
+      private void place(int id, int i) {
+         heap[i] = id;
+         slot[id] = i;
+      }
+   }
+
+   // front end for requests submitted by several producer threads at once:
+   // every producer writes into its own lock-free bounded single-producer
+   // single-consumer (SPSC) ring buffer, or stripe, handed out when the
+   // producer starts, and a single scheduler thread drains the stripes in
+   // batches, request order numbers come from one atomic sequence
+   public static class RequestIngest {
+      public static final int DEFAULT_STRIPE_CAPACITY = 1 << 14;
+      public static final int BATCH_SIZE = 4096;
+
+      private final AtomicInteger sequence = new AtomicInteger(1);   // order of request made
+      private final Stripe[] stripes;
+      private final AtomicInteger activeProducers = new AtomicInteger();
+      private int startedProducers;           // stripes handed out so far
+      private volatile Exception error;       // first error met by a producer
+
+      // task run by a producer thread, given the stripe it submits into
+      public interface Producer {
+         void run(int stripe) throws IOException;
+      }
+
+      // construct an ingest with the given number of stripes, each
+      // holding up to stripeCapacity flights (rounded up to a power of 2)
+      public RequestIngest(int stripes, int stripeCapacity) {
+         this.stripes = new Stripe[Math.max(stripes, 1)];
+         for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(stripeCapacity);
+         }
+      }
+
+      // return the next order number, unique across all producers
+      public int nextOrder() {
+         return sequence.getAndIncrement();
+      }
+
+      // submit a flight from the producer owning the given stripe,
+      // waiting while the stripe is full
+      public void submit(int stripe, Flight flight) {
+         stripes[stripe].offer(flight);
+      }
+
+      // move up to maxFlights submitted flights into the queue, return how
+      // many were moved (only the scheduler thread may call this)
+      public int drainTo(FlightQueue queue, int maxFlights) {
+         int drained = 0;
+         for (Stripe stripe : stripes) {
+            drained += stripe.drainTo(queue, maxFlights - drained);
+         }
+         return drained;
+      }
+
+      // run a producer on a new thread with a stripe of its own, recording
+      // any error it throws, throw an IllegalStateException if every stripe
+      // already has a producer
+      public void startProducer(Producer producer) {
+         if (startedProducers == stripes.length) {
+            throw new IllegalStateException("every stripe already has a producer: " + stripes.length);
+         }
+         int stripe = startedProducers++;
+         activeProducers.incrementAndGet();
+         Thread thread = new Thread(() -> {
+            try {
+               producer.run(stripe);
+            } catch (IOException | RuntimeException e) {
+               if (error == null) {
+                  error = e;
+               }
+            } finally {
+               activeProducers.decrementAndGet();
+            }
+         }, "request-producer");
+         thread.setDaemon(true);
+         thread.start();
+      }
+
+      // return true once every started producer has returned, all flights
+      // submitted before then are visible to the next drainTo
+      public boolean producersFinished() {
+         return activeProducers.get() == 0;
+      }
+
+      // rethrow the first error met by a producer
+      public void checkError() throws IOException {
+         if (error instanceof IOException) {
+            throw (IOException)error;
+         } else if (error != null) {
+            throw (RuntimeException)error;
+         }
+      }
+
+      // bounded SPSC ring buffer filled by its producer and drained by the
+      // scheduler thread, each slot has a sequence number telling whether
+      // it is free for the producer of a lap or filled for the consumer
+      private static class Stripe {
+         private final Flight[] slots;
+         private final AtomicLongArray sequence;
+         private final AtomicLong tail = new AtomicLong();   // next slot to claim
+         private long head;                                   // next slot to drain
+         private final int mask;
+
+         // construct a stripe holding at least the given number of flights
+         Stripe(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            slots = new Flight[size];
+            sequence = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+               sequence.set(i, i);
+            }
+            mask = size - 1;
+         }
+
+         // claim the next slot and publish a flight into it
+         void offer(Flight flight) {
+            long position = tail.getAndIncrement();
+            int slot = (int)position & mask;
+            // wait until the consumer has freed the slot from the last lap
+            while (sequence.get(slot) != position) {
+               Thread.yield();
+            }
+            slots[slot] = flight;
+            sequence.lazySet(slot, position + 1);
+         }
+
+         // move up to maxFlights published flights into the queue in slot order
+         int drainTo(FlightQueue queue, int maxFlights) {
+            int drained = 0;
+            while (drained < maxFlights) {
+               int slot = (int)head & mask;
+               if (sequence.get(slot) != head + 1) {
+                  break;
+               }
+               queue.offer(slots[slot]);
+               slots[slot] = null;
+               sequence.lazySet(slot, head + slots.length);
+               head++;
+               drained++;
+            }
+            return drained;
+         }
+      }
+   }
+
+   // request records held in memory as parallel arrays, read back in the
+   // order they were added
+   public static class RequestBatch implements RequestSource {
+      private String[] names = new String[16];
+      private byte[] types = new byte[16];
+      private int[] times = new int[16];
+      private int[] counts = new int[16];
+      private int size;          // number of records
+      private int current = -1;  // index of the current record
+
+      // add a record given flight name, record type code, time in minutes
+      // and passenger count (ignored for cancel and emergency records)
+      public void add(String name, int recordType, int time, int passengerCount) {
+         if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+         }
+         names[size] = name;
+         types[size] = (byte)recordType;
+         times[size] = time;
+         counts[size] = passengerCount;
+         size++;
+      }
+
+      // return number of records
+      public int size() {
+         return size;
+      }
+
+      // advance to the next record, return false when there are no more
+      public boolean next() {
+         if (current + 1 >= size) {
+            return false;
+         }
+         current++;
+         return true;
+      }
+
+      // return name of the flight on the current record
+      public String name() {
+         return names[current];
+      }
+
+      // return record type code of the current record
+      public int recordType() {
+         return types[current];
+      }
+
+      // return time of the current record in minutes
+      public int requestTime() {
+         return times[current];
+      }
+
+      // return passenger count of the current record
+      public int passengerCount() {
+         return counts[current];
+      }
+
+      // rewind to before the first record
+      public void close() {
+         current = -1;
+      }
+   }
+
+   // departure recorder that keeps full prioritization departures in memory
+   // as parallel arrays, so they can be merged with other airports
+   public static class DepartureLog implements DepartureRecorder {
+      private String[] names = new String[16];
+      private int[] times = new int[16];
+      private int[] runways = new int[16];
+      private int size;          // number of departures
+
+      // record a flight departed from the only runway
+      public void departure(String name, int time) {
+         departure(name, time, 0);
+      }
+
+      // record a flight departed from the given runway
+      public void departure(String name, int time, int runway) {
+         if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            runways = Arrays.copyOf(runways, size * 2);
+         }
+         names[size] = name;
+         times[size] = time;
+         runways[size] = runway;
+         size++;
+      }
+
+      // return number of departures
+      public int size() {
+         return size;
+      }
+
+      // return flight name of the i-th departure
+      public String name(int i) {
+         return names[i];
+      }
+
+      // return departure time of the i-th departure
+      public int time(int i) {
+         return times[i];
+      }
+
+      // return runway of the i-th departure, 0 for the only runway
+      public int runway(int i) {
+         return runways[i];
+      }
+
+      // reorder departures by departure time, keeping release order for equal
+      // times (with one runway they are already in order)
+      public void sortByTime() {
+         long[] keys = new long[size];
+         for (int i = 0; i < size; i++) {
+            keys[i] = packKey(times[i], i);
+         }
+         Arrays.sort(keys);
+         String[] sortedNames = new String[names.length];
+         int[] sortedRunways = new int[runways.length];
+         for (int i = 0; i < size; i++) {
+            int from = keyOrder(keys[i]);
+            sortedNames[i] = names[from];
+            sortedRunways[i] = runways[from];
+            times[i] = keyVal(keys[i]);
+         }
+         names = sortedNames;
+         runways = sortedRunways;
+      }
+   }
+
+   // fork/join task simulating full prioritization for one airport, reading
+   // its requests from its own file or from a batch split out of a tagged file
+   public static class AirportShard extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      public final String airport;
+      public final DepartureLog departures = new DepartureLog();
+      private final File file;
+      private final RequestBatch batch;
+      private final String engine;
+      private final int runways;
+
+      // construct a shard given airport code, its request file or batch
+      // (the other one null), queue engine and number of runways
+      public AirportShard(String airport, File file, RequestBatch batch, String engine, int runways) {
+         this.airport = airport;
+         this.file = file;
+         this.batch = batch;
+         this.engine = engine;
+         this.runways = runways;
+      }
+
+      // return a shard for every file in a directory, named after the file
+      // up to its first dot, in alphabetical order
+      public static List<AirportShard> fromDirectory(File directory, String engine, int runways) {
+         File[] files = directory.listFiles(File::isFile);
+         Arrays.sort(files);
+         List<AirportShard> shards = new ArrayList<AirportShard>();
+         for (File file : files) {
+            String airport = file.getName();
+            if (airport.indexOf('.') > 0) {
+               airport = airport.substring(0, airport.indexOf('.'));
+            }
+            shards.add(new AirportShard(airport, file, null, engine, runways));
+         }
+         return shards;
+      }
+
+      // return a shard for every airport code in a tagged request file
+      // ("<airport> <name> <word> <word> <hour:minute> <count>"), in
+      // alphabetical order, the records are split into in-memory batches
+      public static List<AirportShard> fromTaggedFile(File file, String engine, int runways)
+            throws IOException {
+         Map<String, RequestBatch> batches = new TreeMap<String, RequestBatch>();
+         String airport = null;
+         RequestBatch batch = null;
+         try (RequestReader input = new RequestReader(file, RequestReader.DEFAULT_WINDOW, true)) {
+            while (input.next()) {
+               if (airport == null || !input.airportIs(airport)) {
+                  airport = input.airport();
+                  batch = batches.computeIfAbsent(airport, code -> new RequestBatch());
+               }
+               int recordType = input.recordType();
+               boolean hasCount = recordType == TAKEOFF_REQUEST || recordType == UPDATE_REQUEST;
+               batch.add(input.name(), recordType, input.requestTime(), hasCount ? input.passengerCount() : 0);
+            }
+         }
+         List<AirportShard> shards = new ArrayList<AirportShard>();
+         for (Map.Entry<String, RequestBatch> entry : batches.entrySet()) {
+            shards.add(new AirportShard(entry.getKey(), null, entry.getValue(), engine, runways));
+         }
+         return shards;
+      }
+
+      // simulate this airport, leaving its departures ordered by time
+      protected void compute() {
+         try (RequestSource input = file != null ? new RequestReader(file) : batch) {
+            fullPrioritization(newFlightQueue(engine), input, departures, new RunwaySchedule(runways));
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         if (runways > 1) {
+            departures.sortByTime();
+         }
+      }
+   }
+
+   // scheduler metrics: queue depth high-water mark, percolate up/down moves,
+   // request and release throughput, and log2-bucketed histograms of wait
+   // time (request to start of takeoff roll) and takeoff duration in minutes,
+   // ENABLED is a constant read once from the "takeoff.metrics" system
+   // property, so when it is false the JIT drops every call below from the
+   // hot path, counters are thread safe for the parallel modes
+   public static class SchedulerMetrics {
+      public static final boolean ENABLED = Boolean.getBoolean("takeoff.metrics");
+      private static final int BUCKETS = 33;   // 0 and one per bit length of an int
+
+      private static final long START_NANOS = System.nanoTime();
+      private static final LongAdder REQUESTS = new LongAdder();
+      private static final LongAdder RELEASES = new LongAdder();
+      private static final LongAdder PERCOLATE_UP_MOVES = new LongAdder();
+      private static final LongAdder PERCOLATE_DOWN_MOVES = new LongAdder();
+      private static final LongAccumulator MAX_QUEUE_DEPTH = new LongAccumulator(Math::max, 0);
+      private static final AtomicLongArray WAIT_TIME = new AtomicLongArray(BUCKETS);
+      private static final AtomicLongArray TAKEOFF_TIME = new AtomicLongArray(BUCKETS);
+
+      // record requests added to a queue which then holds queueDepth flights
+      public static void requested(int count, int queueDepth) {
+         if (ENABLED && count > 0) {
+            REQUESTS.add(count);
+            MAX_QUEUE_DEPTH.accumulate(queueDepth);
+         }
+      }
+
+      // record a flight released by simple or intermediate prioritization
+      public static void released() {
+         if (ENABLED) {
+            RELEASES.increment();
+         }
+      }
+
+      // record a flight departed by full prioritization given how long it
+      // waited and how long its takeoff took (in minutes)
+      public static void departed(int waitTime, int takeOffTime) {
+         if (ENABLED) {
+            RELEASES.increment();
+            WAIT_TIME.incrementAndGet(bucket(waitTime));
+            TAKEOFF_TIME.incrementAndGet(bucket(takeOffTime));
+         }
+      }
+
+      // record the number of levels a flight percolated up a heap
+      public static void percolatedUp(int moves) {
+         if (ENABLED && moves > 0) {
+            PERCOLATE_UP_MOVES.add(moves);
+         }
+      }
+
+      // record the number of levels a flight percolated down a heap
+      public static void percolatedDown(int moves) {
+         if (ENABLED && moves > 0) {
+            PERCOLATE_DOWN_MOVES.add(moves);
+         }
+      }
+
+      // print a snapshot of every metric
+      public static void report(PrintStream out) {
+         double seconds = Math.max((System.nanoTime() - START_NANOS) / 1e9, 1e-9);
+         long requests = REQUESTS.sum();
+         long releases = RELEASES.sum();
+         StringBuilder report = new StringBuilder();
+         report.append(String.format("metrics after %.3f s%n", seconds));
+         report.append(String.format("  requests: %d (%.0f/s)%n", requests, requests / seconds));
+         report.append(String.format("  releases: %d (%.0f/s)%n", releases, releases / seconds));
+         report.append(String.format("  max queue depth: %d%n", MAX_QUEUE_DEPTH.get()));
+         report.append(String.format("  percolate up moves: %d%n", PERCOLATE_UP_MOVES.sum()));
+         report.append(String.format("  percolate down moves: %d%n", PERCOLATE_DOWN_MOVES.sum()));
+         appendHistogram(report, "wait time (min)", WAIT_TIME);
+         appendHistogram(report, "takeoff time (min)", TAKEOFF_TIME);
+         out.print(report);
+      }
+
+      // print a snapshot every periodMillis on a daemon thread (if positive)
+      public static void startReporter(long periodMillis, PrintStream out) {
+         if (periodMillis <= 0) {
+            return;
+         }
+         Thread reporter = new Thread(() -> {
+            try {
+               while (true) {
+                  Thread.sleep(periodMillis);
+                  report(out);
+               }
+            } catch (InterruptedException e) {
+               // stop reporting
+            }
+         }, "metrics-reporter");
+         reporter.setDaemon(true);
+         reporter.start();
+      }
+
+      // return histogram bucket of a value: 0 for values below 1, otherwise
+      // its bit length, so bucket b holds values in [2^(b-1), 2^b)
+      private static int bucket(int value) {
+         return value <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(value);
+      }
+
+      // append the non-empty buckets of a histogram to a report
+      private static void appendHistogram(StringBuilder report, String title, AtomicLongArray histogram) {
+         report.append("  ").append(title).append(":\n");
+         for (int b = 0; b < BUCKETS; b++) {
+            long count = histogram.get(b);
+            if (count > 0) {
+               long low = b == 0 ? 0 : 1L << (b - 1);
+               long high = b == 0 ? 0 : (1L << b) - 1;
+               report.append(String.format("    [%d, %d]: %d%n", low, high, count));
+            }
+         }
+      }
+   }
+
+   // runway-free event queue for full prioritization: a min-heap of runways
+   // keyed by the time each runway becomes free (ties go to the lower runway
+   // number), packed like PackedFlightHeap keys, so finding the earliest free
+   // runway is O(1) and occupying it again is O(log runways)
+   public static class RunwaySchedule {
+      private final long[] keys;    // packed (free time, runway), index 1 is the root
+
+      // construct a schedule of the given number of runways, all free at time 0,
+      // throw an IllegalArgumentException if there is no runway
+      public RunwaySchedule(int runways) {
+         if (runways < 1) {
+            throw new IllegalArgumentException("need at least one runway: " + runways);
+         }
+         keys = new long[runways + 1];
+         for (int runway = 1; runway <= runways; runway++) {
+            keys[runway] = packKey(0, runway);
+         }
+      }
+
+      // construct a schedule from a snapshot of another schedule
+      public RunwaySchedule(long[] snapshot) {
+         keys = new long[snapshot.length + 1];
+         System.arraycopy(snapshot, 0, keys, 1, snapshot.length);
+      }
+
+      // return packed (free time, runway) keys of every runway in heap order
+      public long[] snapshot() {
+         return Arrays.copyOfRange(keys, 1, keys.length);
+      }
+
+      // return number of runways
+      public int size() {
+         return keys.length - 1;
+      }
+
+      // return earliest time at which a runway is free
+      public int nextFreeTime() {
+         return keyVal(keys[1]);
+      }
+
+      // return number (from 1) of the runway free earliest
+      public int nextFreeRunway() {
+         return keyOrder(keys[1]);
+      }
+
+      // mark the runway free earliest as busy until the given time
+      // (not earlier than its current free time)
+      public void occupyNext(int freeTime) {
+         long key = packKey(freeTime, keyOrder(keys[1]));
+         int size = keys.length - 1;
+
+         // percolate the runway down while a child is free earlier
+         int i = 1;
+         int child = 2;
+         while (child <= size) {
+            if (child < size && keys[child + 1] < keys[child]) {
+               child++;
+            }
+            if (keys[child] >= key) {
+               break;
+            }
+            keys[i] = keys[child];
+            i = child;
+            child = 2 * i;
+         }
+         keys[i] = key;
+      }
+   }
+
+   // checkpoint of full prioritization state kept in a memory-mapped file:
+   // magic and version ints, long input offset, int order number, int runway
+   // count and a long (free time, runway) key per runway, int flight count and
+   // per flight its order, value, request time, emergency byte, unsigned
+   // short name length and name bytes, a new checkpoint is written to a temporary file and
+   // renamed over the old one so a crash never leaves a partial checkpoint
+   public static class SchedulerCheckpoint {
+      private static final int MAGIC = 0x54514350;    // "TQCP"
+      private static final int VERSION = 2;
+
+      public final File file;
+      public final long interval;         // records between checkpoints
+      // state read by load
+      public long inputOffset;
+      public int order;
+      public long[] runways;
+      public Flight[] flights;
+
+      // construct a checkpoint kept in the given file and saved every
+      // interval records
+      public SchedulerCheckpoint(File file, long interval) {
+         this.file = file;
+         this.interval = Math.max(interval, 1);
+      }
+
+      // save the state of a full prioritization run
+      public void save(FlightQueue minHeap, int order, RunwaySchedule schedule, long inputOffset)
+            throws IOException {
+         Flight[] queued = minHeap.snapshot();
+         long[] keys = schedule.snapshot();
+         long size = 4 + 4 + 8 + 4 + 4 + 8L * keys.length + 4;
+         for (Flight flight : queued) {
+            size += 4 + 4 + 4 + 1 + 2 + flight.name.length();
+         }
+
+         File temp = new File(file.getPath() + ".tmp");
+         try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(size);
+            MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.putInt(MAGIC).putInt(VERSION).putLong(inputOffset).putInt(order);
+            map.putInt(keys.length);
+            for (long key : keys) {
+               map.putLong(key);
+            }
+            map.putInt(queued.length);
+            for (Flight flight : queued) {
+               map.putInt(flight.order).putInt(flight.val).putInt(flight.requestTime);
+               map.put(flight.emergency ? (byte)1 : (byte)0);
+               map.putShort((short)flight.name.length());
+               map.put(flight.name.getBytes(StandardCharsets.ISO_8859_1));
+            }
+            map.force();
+         }
+         java.nio.file.Files.move(temp.toPath(), file.toPath(),
+            java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+            java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      // read the saved state, return false if there is no checkpoint,
+      // throw an IOException if the file is not a checkpoint
+      public boolean load() throws IOException {
+         if (!file.exists()) {
+            return false;
+         }
+         try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+               throw new IOException("not a checkpoint: " + file);
+            }
+            inputOffset = map.getLong();
+            order = map.getInt();
+            runways = new long[map.getInt()];
+            for (int i = 0; i < runways.length; i++) {
+               runways[i] = map.getLong();
+            }
+            flights = new Flight[map.getInt()];
+            byte[] name = new byte[64];
+            for (int i = 0; i < flights.length; i++) {
+               int flightOrder = map.getInt();
+               int val = map.getInt();
+               int requestTime = map.getInt();
+               boolean emergency = map.get() != 0;
+               int length = map.getShort() & 0xFFFF;
+               if (length > name.length) {
+                  name = new byte[length];
+               }
+               map.get(name, 0, length);
+               flights[i] = new Flight(new String(name, 0, length, StandardCharsets.ISO_8859_1), flightOrder, val);
+               flights[i].requestTime = requestTime;
+               flights[i].emergency = emergency;
+            }
+         }
+         return true;
+      }
+
+      // remove the checkpoint file
+      public void delete() {
+         file.delete();
+      }
+   }
+
+   // pack value and order number of a flight into a single long key that
+   // orders the same way as isHigherPriority (value in the high 32 bits,
+   // order number as an unsigned int in the low 32 bits)
+   public static long packKey(int val, int order) {
+      return ((long)val << 32) | (order & 0xFFFFFFFFL);
+   }
+
+   // return value for comparison stored in a packed key
+   public static int keyVal(long key) {
+      return (int)(key >> 32);
+   }
+
+   // return order number stored in a packed key
+   public static int keyOrder(long key) {
+      return (int)key;
+   }
+
+   // pull-based stream of request records read by the prioritization schemes
+   public interface RequestSource extends Closeable {
+      // advance to the next record, return false when there are no more
+      boolean next() throws IOException;
+      // name of the flight on the current record
+      String name();
+      // record type code of the current record (TAKEOFF_REQUEST etc.)
+      int recordType();
+      // time of the current record in minutes
+      int requestTime();
+      // passenger count of the current record
+      int passengerCount();
+   }
+
+   // pull-based reader of request records, one per line in the format
+   // "<name> <word> <word> <hour:minute> <count>", which maps the file in large
+   // windows and decodes fields straight from the mapped bytes, so apart from
+   // the flight name handed to the caller no per-line object is created, and
+   // files larger than the heap (or address space) are read window by window,
+   // a tagged reader expects an airport code in front of every record
+   public static class RequestReader implements RequestSource {
+      public static final int DEFAULT_WINDOW = 64 << 20;
+      private static final int FIELDS = 6;
+
+      private final FileChannel channel;
+      private final long fileSize;
+      private final int windowSize;
+      private MappedByteBuffer window;       // currently mapped part of the file
+      private long windowStart;              // file offset of the window
+      private int pos;                       // read position within the window
+      private long lineNumber;               // number of the current line
+      private final int[] fieldStart = new int[FIELDS];
+      private final int[] fieldEnd = new int[FIELDS];
+      private int fieldCount;                // fields found on the current line
+      private byte[] nameBytes = new byte[32];
+      private final int first;               // field holding the flight name
+
+      // construct a reader for the given file with the default window size
+      public RequestReader(File file) throws IOException {
+         this(file, DEFAULT_WINDOW, false);
+      }
+
+      // construct a reader for the given file mapping at most windowSize
+      // bytes at a time (a record must fit in one window), if tagged each
+      // record starts with an airport code
+      public RequestReader(File file, int windowSize, boolean tagged) throws IOException {
+         this.channel = new RandomAccessFile(file, "r").getChannel();
+         this.fileSize = channel.size();
+         this.windowSize = windowSize;
+         this.first = tagged ? 1 : 0;
+         map(0);
+      }
+
+      // advance to the next non-blank record, return false at end of file
+      public boolean next() throws IOException {
+         while (true) {
+            // find the end of the current line, remapping if it is cut off
+            int end = lineEnd();
+            if (end < 0) {
+               if (windowStart + pos >= fileSize) {
+                  return false;
+               }
+               if (window.limit() == fileSize - windowStart) {
+                  end = window.limit();
+               } else if (pos == 0) {
+                  throw new IOException("line " + (lineNumber + 1) + " longer than " + windowSize + " bytes");
+               } else {
+                  map(windowStart + pos);
+                  continue;
+               }
+            }
+            lineNumber++;
+
+            // record the bounds of each whitespace separated field
+            fieldCount = 0;
+            int i = pos;
+            while (i < end && fieldCount < FIELDS) {
+               while (i < end && isSpace(window.get(i))) {
+                  i++;
+               }
+               if (i == end) {
+                  break;
+               }
+               fieldStart[fieldCount] = i;
+               while (i < end && !isSpace(window.get(i))) {
+                  i++;
+               }
+               fieldEnd[fieldCount] = i;
+               fieldCount++;
+            }
+            pos = end < window.limit() ? end + 1 : end;
+            if (fieldCount > 0) {
+               return true;
+            }
+         }
+      }
+
+      // return name of the flight on the current record
+      public String name() {
+         return field(first);
+      }
+
+      // return airport code of the current record of a tagged reader
+      public String airport() {
+         return field(0);
+      }
+
+      // return true if the current record of a tagged reader has the
+      // given airport code, without creating a String
+      public boolean airportIs(String airport) {
+         return fieldMatches(0, airport);
+      }
+
+      // return record type code of the current record, decided by its
+      // second word (anything other than a known word is a takeoff request)
+      public int recordType() {
+         if (fieldMatches(first + 1, CANCEL_RECORD)) {
+            return CANCEL_REQUEST;
+         } else if (fieldMatches(first + 1, UPDATE_RECORD)) {
+            return UPDATE_REQUEST;
+         } else if (fieldMatches(first + 1, EMERGENCY_RECORD)) {
+            return EMERGENCY_REQUEST;
+         } else {
+            return TAKEOFF_REQUEST;
+         }
+      }
+
+      // return time of the current record in minutes (see timeFromString)
+      public int requestTime() {
+         int start = requireField(first + 3);
+         int end = fieldEnd[first + 3];
+         int colon = start;
+         while (colon < end && window.get(colon) != ':') {
+            colon++;
+         }
+         return parseInt(start, colon) % 12 * 60 + parseInt(colon + 1, end);
+      }
+
+      // return passenger count of the current record
+      public int passengerCount() {
+         int start = requireField(first + 4);
+         return parseInt(start, fieldEnd[first + 4]);
+      }
+
+      // continue reading at the given file offset (the start of a line),
+      // line numbers then count from there
+      public void seek(long offset) throws IOException {
+         map(Math.min(offset, fileSize));
+         lineNumber = 0;
+      }
+
+      // return number of the current line in the file
+      public long lineNumber() {
+         return lineNumber;
+      }
+
+      // return file offset just past the current record
+      public long offset() {
+         return windowStart + pos;
+      }
+
+      // close the underlying file
+      public void close() throws IOException {
+         channel.close();
+      }
+
+      // map the window of the file starting at the given offset
+      private void map(long start) throws IOException {
+         windowStart = start;
+         window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+         pos = 0;
+      }
+
+      // return index of the newline ending the line at pos, -1 if not in window
+      private int lineEnd() {
+         int limit = window.limit();
+         for (int i = pos; i < limit; i++) {
+            if (window.get(i) == '\n') {
+               return i;
+            }
+         }
+         return -1;
+      }
 
-      // construct a Flight object given a name and a value for comparison
-      public Flight(String name, int val) {
-         this(name, -1, val);
+      // return the given field of the current record as a String, throw a
+      // NoSuchElementException if missing
+      private String field(int field) {
+         int start = requireField(field);
+         int length = fieldEnd[field] - start;
+         if (length > nameBytes.length) {
+            nameBytes = new byte[Math.max(length, nameBytes.length * 2)];
+         }
+         window.get(start, nameBytes, 0, length);
+         return new String(nameBytes, 0, length, StandardCharsets.ISO_8859_1);
       }
-      
-      // construct a Flight object given a name, an order number,
-      // and a value for comparison
-      public Flight(String name, int order, int val) {
-         this.name = name;
-         this.order = order;
-         this.val = val;
+
+      // return start of the given field, throw a NoSuchElementException if missing
+      private int requireField(int field) {
+         if (field >= fieldCount) {
+            throw new NoSuchElementException("line " + lineNumber + ": missing field " + (field + 1));
+         }
+         return fieldStart[field];
+      }
+
+      // return true if the given field of the current record equals word
+      private boolean fieldMatches(int field, String word) {
+         if (field >= fieldCount || fieldEnd[field] - fieldStart[field] != word.length()) {
+            return false;
+         }
+         for (int i = 0; i < word.length(); i++) {
+            if (window.get(fieldStart[field] + i) != word.charAt(i)) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      // parse a decimal integer from the window bytes in [start, end),
+      // throw a NumberFormatException if they are not a number
+      private int parseInt(int start, int end) {
+         boolean negative = start < end && window.get(start) == '-';
+         int i = negative ? start + 1 : start;
+         if (i == end) {
+            throw new NumberFormatException("line " + lineNumber + ": missing number");
+         }
+         int value = 0;
+         for (; i < end; i++) {
+            int digit = window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+               throw new NumberFormatException("line " + lineNumber + ": bad number");
+            }
+            value = value * 10 + digit;
+         }
+         return negative ? -value : value;
+      }
+
+      // return true for the whitespace bytes separating fields
+      private static boolean isSpace(byte b) {
+         return b == ' ' || b == '\t' || b == '\r';
       }
    }
-   
+
+   // destination of the flights released by the prioritization schemes
+   public interface DepartureSink extends DepartureRecorder, Closeable, Flushable {
+      // flight released by simple prioritization
+      void flight(String name) throws IOException;
+      // flight released by intermediate prioritization
+      void flight(String name, int passengerCount) throws IOException;
+      // flight of the given airport departed as departure(name, time, runway)
+      // does, named "<airport> <name>"
+      void departure(String airport, String name, int time, int runway) throws IOException;
+   }
+
+   // receiver of the departures of full prioritization, which releases
+   // flights with a departure time only
+   public interface DepartureRecorder {
+      // flight departed at the given time (in minutes) by full prioritization
+      void departure(String name, int time) throws IOException;
+      // flight departed at the given time from the given runway (numbered
+      // from 1) by full prioritization with several runways
+      void departure(String name, int time, int runway) throws IOException;
+   }
+
+   // departure sink which formats records into a large byte buffer without
+   // creating Strings, as the lines printed before ("<name> departed at
+   // hh:mm" plus " on runway <n>" with several runways), as CSV
+   // ("<name>,<minutes>[,<runway>]"), or as binary records (unsigned short
+   // name length, name bytes, big-endian int passenger count or departure
+   // minutes, -1 for simple prioritization, then with several runways an int
+   // runway number), a full buffer is
+   // written to the stream, or with async handed through a bounded queue to
+   // a writer thread so the scheduler only waits when the queue is full
+   public static class BufferedDepartureSink implements DepartureSink {
+      public static final int TEXT = 0;
+      public static final int CSV = 1;
+      public static final int BINARY = 2;
+      public static final int BUFFER_SIZE = 1 << 16;
+      public static final int QUEUE_DEPTH = 8;
+      private static final byte[] DEPARTED_AT = " departed at ".getBytes(StandardCharsets.US_ASCII);
+      private static final byte[] ON_RUNWAY = " on runway ".getBytes(StandardCharsets.US_ASCII);
+      private static final ByteBuffer END_OF_OUTPUT = ByteBuffer.allocate(0);
+      private static final ByteBuffer FLUSH_MARKER = ByteBuffer.allocate(0);
+
+      private final OutputStream out;
+      private final int format;
+      private ByteBuffer buffer;                    // buffer being filled
+      private final byte[] digits = new byte[11];   // scratch for decimal ints
+      private final BlockingQueue<ByteBuffer> filled;
+      private final BlockingQueue<ByteBuffer> emptied;
+      private final Thread writer;
+      private final Semaphore flushed = new Semaphore(0);   // released per flush written
+      private volatile IOException writeError;
+
+      // construct a sink writing text to the given stream from this thread
+      public BufferedDepartureSink(OutputStream out) {
+         this(out, TEXT, false);
+      }
+
+      // construct a sink writing the given format to the given stream,
+      // from a background writer thread if async is true
+      public BufferedDepartureSink(OutputStream out, int format, boolean async) {
+         this.out = out;
+         this.format = format;
+         this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+         if (async) {
+            filled = new ArrayBlockingQueue<ByteBuffer>(QUEUE_DEPTH);
+            emptied = new ArrayBlockingQueue<ByteBuffer>(QUEUE_DEPTH);
+            for (int i = 0; i < QUEUE_DEPTH - 1; i++) {
+               emptied.add(ByteBuffer.allocate(BUFFER_SIZE));
+            }
+            writer = new Thread(this::writeFilled, "departure-writer");
+            writer.setDaemon(true);
+            writer.start();
+         } else {
+            filled = null;
+            emptied = null;
+            writer = null;
+         }
+      }
+
+      // return the format constant for a format name, throw an
+      // IllegalArgumentException for an unknown name
+      public static int format(String name) {
+         switch (name) {
+            case "text" :     return TEXT;
+            case "csv" :      return CSV;
+            case "binary" :   return BINARY;
+            default :         throw new IllegalArgumentException("unknown output format: " + name);
+         }
+      }
+
+      // write a flight released by simple prioritization
+      public void flight(String name) throws IOException {
+         if (format == BINARY) {
+            putRecord(name, -1);
+         } else {
+            putName(name);
+            put((byte)'\n');
+         }
+      }
+
+      // write a flight released by intermediate prioritization
+      public void flight(String name, int passengerCount) throws IOException {
+         if (format == BINARY) {
+            putRecord(name, passengerCount);
+         } else {
+            putName(name);
+            put(format == CSV ? (byte)',' : (byte)' ');
+            putDecimal(passengerCount);
+            put((byte)'\n');
+         }
+      }
+
+      // write a flight departed by full prioritization
+      public void departure(String name, int time) throws IOException {
+         departure(name, time, 0);
+      }
+
+      // write a flight departed from the given runway, runway 0 stands
+      // for the only runway and is left out
+      public void departure(String name, int time, int runway) throws IOException {
+         departure(null, name, time, runway);
+      }
+
+      // write a flight of the given airport (null for none) departed from
+      // the given runway, the airport and a space go before the name
+      public void departure(String airport, String name, int time, int runway) throws IOException {
+         if (format == BINARY) {
+            putRecord(airport, name, time);
+            if (runway > 0) {
+               putInt(runway);
+            }
+         } else if (format == CSV) {
+            putName(airport, name);
+            put((byte)',');
+            putDecimal(time);
+            if (runway > 0) {
+               put((byte)',');
+               putDecimal(runway);
+            }
+            put((byte)'\n');
+         } else {
+            // same as timeToString, hour and minute always have two digits
+            putName(airport, name);
+            for (byte b : DEPARTED_AT) {
+               put(b);
+            }
+            int hour = ((time / 60) + 11) % 12 + 1;
+            int minute = time % 60;
+            put((byte)('0' + hour / 10));
+            put((byte)('0' + hour % 10));
+            put((byte)':');
+            put((byte)('0' + minute / 10));
+            put((byte)('0' + minute % 10));
+            if (runway > 0) {
+               for (byte b : ON_RUNWAY) {
+                  put(b);
+               }
+               putDecimal(runway);
+            }
+            put((byte)'\n');
+         }
+      }
+
+      // write out everything buffered and flush the stream, with a writer
+      // thread wait until it has written every buffer queued so far and
+      // flushed the stream, so the departures are out once this returns
+      public void flush() throws IOException {
+         flushBuffer();
+         if (writer == null) {
+            out.flush();
+            return;
+         }
+         try {
+            filled.put(FLUSH_MARKER);
+            flushed.acquire();
+         } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while flushing departures");
+         }
+         checkWriteError();
+      }
+
+      // write out everything buffered, stop the writer thread if any
+      public void close() throws IOException {
+         flushBuffer();
+         if (writer != null) {
+            try {
+               filled.put(END_OF_OUTPUT);
+               writer.join();
+            } catch (InterruptedException e) {
+               throw new InterruptedIOException("interrupted while closing departure sink");
+            }
+            checkWriteError();
+         }
+         out.flush();
+      }
+
+      // put one byte into the buffer, handing the buffer off when full
+      private void put(byte b) throws IOException {
+         if (!buffer.hasRemaining()) {
+            flushBuffer();
+         }
+         buffer.put(b);
+      }
+
+      // put the characters of a name into the buffer as single bytes
+      private void putName(String name) throws IOException {
+         for (int i = 0; i < name.length(); i++) {
+            put((byte)name.charAt(i));
+         }
+      }
+
+      // put an airport (unless null), a space and a name into the buffer
+      private void putName(String airport, String name) throws IOException {
+         if (airport != null) {
+            putName(airport);
+            put((byte)' ');
+         }
+         putName(name);
+      }
+
+      // put an int into the buffer as decimal digits
+      private void putDecimal(int value) throws IOException {
+         if (value < 0) {
+            put((byte)'-');
+            value = -value;
+         }
+         int i = digits.length;
+         do {
+            digits[--i] = (byte)('0' + value % 10);
+            value /= 10;
+         } while (value != 0);
+         for (; i < digits.length; i++) {
+            put(digits[i]);
+         }
+      }
+
+      // put a binary record (name length, name, value) into the buffer
+      private void putRecord(String name, int value) throws IOException {
+         putRecord(null, name, value);
+      }
+
+      // put a binary record whose name is "<airport> <name>" (just the name
+      // if airport is null) into the buffer
+      private void putRecord(String airport, String name, int value) throws IOException {
+         int length = airport == null ? name.length() : airport.length() + 1 + name.length();
+         if (length > 0xFFFF) {
+            throw new IllegalArgumentException("flight name too long: " + length);
+         }
+         if (buffer.remaining() < 6) {
+            flushBuffer();
+         }
+         buffer.putShort((short)length);
+         putName(airport, name);
+         putInt(value);
+      }
+
+      // put a big-endian int into the buffer
+      private void putInt(int value) throws IOException {
+         if (buffer.remaining() < 4) {
+            flushBuffer();
+         }
+         buffer.putInt(value);
+      }
+
+      // write the buffer to the stream, or queue it for the writer thread
+      // and continue with an emptied buffer
+      private void flushBuffer() throws IOException {
+         if (writer == null) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+            return;
+         }
+         checkWriteError();
+         try {
+            filled.put(buffer);
+            buffer = emptied.take();
+         } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while writing departures");
+         }
+      }
+
+      // writer thread: write filled buffers until the end of output,
+      // flushing the stream and signalling flush at every flush marker
+      private void writeFilled() {
+         try {
+            while (true) {
+               ByteBuffer full = filled.take();
+               if (full == END_OF_OUTPUT) {
+                  return;
+               }
+               if (full == FLUSH_MARKER) {
+                  if (writeError == null) {
+                     try {
+                        out.flush();
+                     } catch (IOException e) {
+                        writeError = e;
+                     }
+                  }
+                  flushed.release();
+                  continue;
+               }
+               if (writeError == null) {
+                  try {
+                     out.write(full.array(), 0, full.position());
+                  } catch (IOException e) {
+                     writeError = e;
+                  }
+               }
+               full.clear();
+               emptied.put(full);
+            }
+         } catch (InterruptedException e) {
+            writeError = new InterruptedIOException("departure writer interrupted");
+         }
+      }
+
+      // rethrow an error met by the writer thread
+      private void checkWriteError() throws IOException {
+         if (writeError != null) {
+            throw writeError;
+         }
+      }
+   }
+
+   // return true if flight a should take off before flight b, i.e. it is an
+   // emergency and b is not, or else it has a smaller value, or the same
+   // value and a smaller order number
+   public static boolean isHigherPriority(Flight a, Flight b) {
+      if (a.emergency != b.emergency) {
+         return a.emergency;
+      }
+      return a.val < b.val || (a.val == b.val && a.order < b.order);
+   }
+
    // main routine
-   public static void main(String args[]) throws FileNotFoundException {
+   public static void main(String args[]) throws IOException {
       
-      // make Scanner for file input
-      Scanner input = new Scanner(new File(args[0]));  
+      // request files read as concurrent feeds, given comma separated with
+      // "--feeds=FILE,FILE,...", in which case no input file comes before
+      // the scheme, or null to read the one input file
+      String feedList = option(args, "feeds", null);
+      String[] feeds = feedList == null ? null : feedList.split(",");
+      int schemePosition = feeds == null ? 1 : 0;
+      File inputFile = feeds == null ? new File(argument(args, 0, null)) : null;
       // grab prioritization scheme
-      String priorityScheme = args[1];
-      // minHeap array to hold flights
-      Flight[] minHeap = new Flight[1];
-      
-      switch (priorityScheme) {
-      
-         // simple prioritization based on order of takoff requests made
-         case "1" :  simplePrioritization(minHeap, input);
-                     break;
+      String priorityScheme = argument(args, schemePosition, null);
+      // buffered sink for departures, "--format=text|csv|binary", "--async",
+      // closed however the run ends so that every buffered departure is written
+      try (DepartureSink output = new BufferedDepartureSink(new FileOutputStream(FileDescriptor.out),
+            BufferedDepartureSink.format(option(args, "format", "text")), hasFlag(args, "async"))) {
+         // queue engine to hold flights, either given or the default for the scheme
+         // (concurrent feeds arrive out of order, so they need a heap, and their
+         // producers already make a Flight for every request, which the object
+         // heap keeps as it is)
+         String engine = argument(args, schemePosition + 1,
+            feeds != null ? "heap" : defaultEngine(priorityScheme));
+         checkEngine(engine, priorityScheme);
+         FlightQueue minHeap = newFlightQueue(engine);
+         // with metrics enabled ("-Dtakeoff.metrics=true") print a snapshot to
+         // standard error every "--metrics-period=SECONDS" and at exit
+         if (SchedulerMetrics.ENABLED) {
+            SchedulerMetrics.startReporter(Long.parseLong(option(args, "metrics-period", "0")) * 1000, System.err);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> SchedulerMetrics.report(System.err)));
+         }
          
-         // intermediate prioritization based on count of passengers
-         case "2" :  intermediatePrioritization(minHeap, input);
-                     break;
+         if (feeds != null) {
+            concurrentPrioritization(minHeap, feeds, priorityScheme, output);
+            return;
+         }
          
-         // full prioritization based on passenger count and time of request
-         case "3" :  fullPrioritization(minHeap, input);
-                     break;
+         // several airports, given as a directory with one request file per airport
+         // or with "--airports" as one file whose records start with an airport code,
+         // are simulated in parallel by "--threads=N" fork/join workers
+         if (inputFile.isDirectory() || hasFlag(args, "airports")) {
+            if (!priorityScheme.equals("3")) {
+               throw new IllegalArgumentException("several airports need scheme 3");
+            }
+            List<AirportShard> shards = inputFile.isDirectory()
+               ? AirportShard.fromDirectory(inputFile, engine, Integer.parseInt(option(args, "runways", "1")))
+               : AirportShard.fromTaggedFile(inputFile, engine, Integer.parseInt(option(args, "runways", "1")));
+            int threads = Integer.parseInt(option(args, "threads",
+               String.valueOf(Runtime.getRuntime().availableProcessors())));
+            multiAirportPrioritization(shards, threads, output);
+            return;
+         }
          
-         default :   break;
-      }     
+         // make memory-mapped reader for file input
+         try (RequestReader input = new RequestReader(inputFile)) {
+         
+            switch (priorityScheme) {
+            
+               // simple prioritization based on order of takoff requests made
+               case "1" :  simplePrioritization(minHeap, input, output);
+                           break;
+               
+               // intermediate prioritization based on count of passengers
+               case "2" :  intermediatePrioritization(minHeap, input, output);
+                           break;
+               
+               // full prioritization based on passenger count and time of request,
+               // on the number of runways given by "--runways=N" (default 1), with
+               // "--checkpoint=FILE" the state is saved every "--checkpoint-every=N"
+               // records and "--resume" continues from the saved state
+               case "3" :  RunwaySchedule runways = new RunwaySchedule(Integer.parseInt(option(args, "runways", "1")));
+                           String checkpointFile = option(args, "checkpoint", null);
+                           if (checkpointFile == null) {
+                              fullPrioritization(minHeap, input, output, runways);
+                           } else {
+                              SchedulerCheckpoint checkpoint = new SchedulerCheckpoint(new File(checkpointFile),
+                                 Long.parseLong(option(args, "checkpoint-every", "100000")));
+                              checkpointedPrioritization(minHeap, input, output, runways, checkpoint,
+                                 hasFlag(args, "resume"));
+                           }
+                           break;
+               
+               default :   break;
+            }
+         }
+      }
+   }
+   
+   // simple or intermediate prioritization of requests arriving from several
+   // feeds at once, one producer thread per feed file submits flights into a
+   // RequestIngest while this thread drains them in batches into the minHeap,
+   // order numbers come from the ingest sequence, so flights with the same
+   // priority leave in the order they were submitted across all feeds
+   public static void concurrentPrioritization(FlightQueue minHeap, String[] feeds,
+         String priorityScheme, DepartureSink output) throws IOException {
+      if (!priorityScheme.equals("1") && !priorityScheme.equals("2")) {
+         throw new IllegalArgumentException("concurrent feeds need scheme 1 or 2");
+      }
+      if (minHeap instanceof FlightRing || minHeap instanceof BucketFlightQueue) {
+         throw new IllegalArgumentException("concurrent feeds need a heap engine");
+      }
+      boolean simple = priorityScheme.equals("1");
+      RequestIngest ingest = new RequestIngest(feeds.length, RequestIngest.DEFAULT_STRIPE_CAPACITY);
+      
+      // start one producer thread per feed
+      for (String feed : feeds) {
+         ingest.startProducer(stripe -> {
+            try (RequestReader input = new RequestReader(new File(feed))) {
+               while (input.next()) {
+                  int order = ingest.nextOrder();
+                  ingest.submit(stripe, simple ? new Flight(input.name(), order)
+                     : new Flight(input.name(), order, -input.passengerCount())); // negate for sorting
+               }
+            }
+         });
+      }
+      
+      // drain submitted flights into the heap until every producer is done
+      while (true) {
+         boolean finished = ingest.producersFinished();
+         int drained = ingest.drainTo(minHeap, RequestIngest.BATCH_SIZE);
+         SchedulerMetrics.requested(drained, minHeap.size());
+         if (drained == 0) {
+            if (finished) {
+               break;
+            }
+            Thread.yield();
+         }
+      }
+      ingest.checkError();
+      
+      // print flights from heap
+      while (!minHeap.isEmpty()) {
+         Flight flight = minHeap.poll();
+         if (simple) {
+            output.flight(flight.name);
+         } else {
+            output.flight(flight.name, -flight.val); // negate for printing
+         }
+         SchedulerMetrics.released();
+      }
+   }
+   
+   // run full prioritization for every airport shard on a fork/join pool of
+   // the given number of threads, then merge the departures of all airports
+   // into one stream ordered by departure time (ties go to the airport first
+   // in alphabetical order), each written as "<airport> <flight>"
+   public static void multiAirportPrioritization(List<AirportShard> shards, int threads,
+         DepartureSink output) throws IOException {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         pool.submit(() -> ForkJoinTask.invokeAll(shards)).join();
+      } catch (UncheckedIOException e) {
+         throw e.getCause();
+      } finally {
+         pool.shutdown();
+      }
+      
+      // k-way merge of the time ordered departure logs, keyed by packed
+      // (departure time, shard) keys in a min-heap (index 1 is the root)
+      long[] next = new long[shards.size() + 1];
+      int size = 0;
+      int[] position = new int[shards.size()];
+      for (int shard = 0; shard < shards.size(); shard++) {
+         if (shards.get(shard).departures.size() > 0) {
+            size++;
+            next[size] = packKey(shards.get(shard).departures.time(0), shard);
+            siftUp(next, size);
+         }
+      }
+      while (size > 0) {
+         int shard = keyOrder(next[1]);
+         AirportShard airport = shards.get(shard);
+         DepartureLog log = airport.departures;
+         int i = position[shard]++;
+         output.departure(airport.airport, log.name(i), log.time(i), log.runway(i));
+         
+         // replace the root with the shard's next departure, or drop it
+         if (position[shard] < log.size()) {
+            next[1] = packKey(log.time(position[shard]), shard);
+         } else {
+            next[1] = next[size];
+            size--;
+         }
+         siftDown(next, 1, size);
+      }
+   }
+   
+   // percolate the key at the given index of a min-heap of longs up
+   private static void siftUp(long[] keys, int i) {
+      long key = keys[i];
+      while (hasParent(i) && key < keys[parent(i)]) {
+         keys[i] = keys[parent(i)];
+         i = parent(i);
+      }
+      keys[i] = key;
+   }
+   
+   // percolate the key at the given index of a min-heap of longs
+   // holding size keys down
+   private static void siftDown(long[] keys, int i, int size) {
+      long key = keys[i];
+      int child = leftChild(i);
+      while (child <= size) {
+         if (child < size && keys[child + 1] < keys[child]) {
+            child++;
+         }
+         if (keys[child] >= key) {
+            break;
+         }
+         keys[i] = keys[child];
+         i = child;
+         child = leftChild(i);
+      }
+      keys[i] = key;
+   }
+   
+   // return the command line argument at the given position, not counting
+   // "--" options, or the given default if there are not that many arguments
+   public static String argument(String[] args, int position, String defaultValue) {
+      int i = 0;
+      for (String arg : args) {
+         if (!arg.startsWith("--")) {
+            if (i == position) {
+               return arg;
+            }
+            i++;
+         }
+      }
+      return defaultValue;
+   }
+   
+   // return the value of a "--name=value" command line option,
+   // or the given default if the option is not present
+   public static String option(String[] args, String name, String defaultValue) {
+      String prefix = "--" + name + "=";
+      for (String arg : args) {
+         if (arg.startsWith(prefix)) {
+            return arg.substring(prefix.length());
+         }
+      }
+      return defaultValue;
+   }
+   
+   // return true if the "--name" command line flag is present
+   public static boolean hasFlag(String[] args, String name) {
+      return Arrays.asList(args).contains("--" + name);
+   }
+   
+   // return name of the queue engine best suited to a prioritization scheme:
+   // a FIFO ring for simple prioritization, a bucket queue for intermediate
+   // prioritization, and the indexed heap (cancel/update records) for full
+   public static String defaultEngine(String priorityScheme) {
+      switch (priorityScheme) {
+         case "1" :  return "ring";
+         case "2" :  return "bucket";
+         default :   return "indexed";
+      }
+   }
+   
+   // throw an IllegalArgumentException if the queue engine can't run the
+   // prioritization scheme: the FIFO ring keeps flights in order of request
+   // only (simple prioritization), the bucket queue needs passenger counts
+   // (intermediate and full prioritization)
+   public static void checkEngine(String engine, String priorityScheme) {
+      if (engine.equals("ring") && !priorityScheme.equals("1")) {
+         throw new IllegalArgumentException("queue engine ring releases flights in order of request,"
+            + " it needs scheme 1, not " + priorityScheme);
+      }
+      if (engine.equals("bucket") && priorityScheme.equals("1")) {
+         throw new IllegalArgumentException("queue engine bucket orders flights by passenger count,"
+            + " it needs scheme 2 or 3, not 1");
+      }
+   }
+   
+   // return a new empty queue given the name of its engine, throw an
+   // IllegalArgumentException for an unknown engine
+   public static FlightQueue newFlightQueue(String engine) {
+      switch (engine) {
+         case "heap" :     return new FlightHeap();
+         case "packed" :   return new PackedFlightHeap();
+         case "indexed" :  return new IndexedFlightHeap();
+         case "ring" :     return new FlightRing();
+         case "bucket" :   return new BucketFlightQueue();
+         default :         throw new IllegalArgumentException("unknown queue engine: " + engine);
+      }
    }
    
    // add flights to minHeap using simple prioritization, airplanes are granted
    // permission to take off based on the order in which the requests are made,
    // i.e. flight requests are "first come, first served"
-   public static void simplePrioritization(Flight[] minHeap, Scanner input) {
+   public static void simplePrioritization(FlightQueue minHeap, RequestSource input,
+         DepartureSink output) throws IOException {
       
       // order of request made
       int order = 1;
       
-      // process every flight request from file
-      while (input.hasNextLine()) {
-         Scanner lineScan = new Scanner(input.nextLine());
-         String name = lineScan.next();
-         minHeap = addToHeap(minHeap, new Flight(name, order));
+      // process every flight request from file (the order of request is the
+      // value for comparison, as in Flight(name, val))
+      while (input.next()) {
+         offerFlight(minHeap, input.name(), -1, order, 0);
+         SchedulerMetrics.requested(1, minHeap.size());
          order++;      
       }
       
       // print flights from heap
-      while (minHeap.length > 1) {
-         System.out.println(minHeap[1].name);
-         minHeap = removeFromHeap(minHeap);
+      PackedFlightHeap packed = packed(minHeap);
+      while (!minHeap.isEmpty()) {
+         if (packed != null) {
+            output.flight(packed.nameOf(packed.peekId()));
+            packed.pollId();
+         } else {
+            output.flight(minHeap.poll().name);
+         }
+         SchedulerMetrics.released();
       }
    }
    
@@ -85,87 +2399,247 @@ public class TakeoffQueue {
    // are granted permission to take off based on number of passengers,
    // flights with more passengers have higher priority, for flights with
    // same passenger count, priority is determined by order of requests received
-   public static void intermediatePrioritization(Flight[] minHeap, Scanner input) {
+   public static void intermediatePrioritization(FlightQueue minHeap, RequestSource input,
+         DepartureSink output) throws IOException {
            
       // order of request made
       int order = 1;
       
       // process every flight request from file
-      while (input.hasNextLine()) {
-         Scanner lineScan = new Scanner(input.nextLine());
-         String name = lineScan.next();
-         lineScan.next();
-         lineScan.next();
-         lineScan.next();
-         int passengerCount = lineScan.nextInt();
-         minHeap = addToHeap(minHeap, new Flight(name, order, -passengerCount)); // negate for sorting
+      while (input.next()) {
+         int passengerCount = input.passengerCount();
+         offerFlight(minHeap, input.name(), order, -passengerCount, 0); // negate for sorting
+         SchedulerMetrics.requested(1, minHeap.size());
          order++;
       }
       
       // print flights from heap
-      while (minHeap.length > 1) {
-         System.out.println(minHeap[1].name + " " + -minHeap[1].val); // negate for printing
-         minHeap = removeFromHeap(minHeap);
+      PackedFlightHeap packed = packed(minHeap);
+      while (!minHeap.isEmpty()) {
+         if (packed != null) {
+            output.flight(packed.nameOf(packed.peekId()), -keyVal(packed.peekKey())); // negate for printing
+            packed.pollId();
+         } else {
+            Flight flight = minHeap.poll();
+            output.flight(flight.name, -flight.val); // negate for printing
+         }
+         SchedulerMetrics.released();
       }
    }
    
    // full prioritization, flights are cleared for takeoff whenever runway is empty,
    // otherwise, flights are added to the minHeap using intermediate prioritization,
    // if so, flights with more passeners have higher priority, and if flights have
-   // the same passenger count, priority is determined by order of requests received
-   // (assume time in p.m.)
-   public static void fullPrioritization(Flight[] minHeap, Scanner input) {
-         
-      // start the clock at time 0 (12:00 p.m.)
-      int currentTime = 0;
+   // the same passenger count, priority is determined by order of requests received,
+   // besides takeoff requests the input may hold records that cancel a queued
+   // flight, update its passenger count (an emergency flight stays one), or
+   // declare an emergency, these need an IndexedFlightQueue, are ignored if the
+   // flight is no longer queued, and act on the copy queued earliest if its
+   // name is queued more than once (assume time in p.m.)
+   public static void fullPrioritization(FlightQueue minHeap, RequestSource input,
+         DepartureRecorder output) throws IOException {
+      fullPrioritization(minHeap, input, output, new RunwaySchedule(1));
+   }
+   
+   // full prioritization with several runways, whenever a runway is empty the
+   // flight with highest priority is cleared for takeoff from it, a runway left
+   // idle while no flight waits picks up the next request at its request time
+   public static void fullPrioritization(FlightQueue minHeap, RequestSource input,
+         DepartureRecorder output, RunwaySchedule runways) throws IOException {
+      
       // order of request made
       int order = 1;
       
       // process every flight request from file
-      while (input.hasNextLine()) {
-         Scanner lineScan = new Scanner(input.nextLine());
-         String name = lineScan.next();
-         lineScan.next();
-         lineScan.next();
-         int requestTime = timeFromString(lineScan.next());
-         int passengerCount = lineScan.nextInt();
-         Flight flight = new Flight(name, order, -passengerCount); // negate for sorting
+      while (input.next()) {
+         order = scheduleRecord(minHeap, input, output, runways, order);
+      }
+      
+      // clear any backlog of unreleased flights
+      while (!minHeap.isEmpty()) {
+         releaseNext(minHeap, runways, output);
+      }
+   }
+   
+   // full prioritization which saves its state to a checkpoint every so many
+   // records, if resume is true and the checkpoint exists the heap, order
+   // number, runways and input position are restored from it first, so
+   // restarting costs time proportional to the heap, not to the input read,
+   // departures written after the last checkpoint are written again on resume,
+   // the checkpoint is deleted once the input is done
+   public static void checkpointedPrioritization(FlightQueue minHeap, RequestReader input,
+         DepartureSink output, RunwaySchedule runways, SchedulerCheckpoint checkpoint,
+         boolean resume) throws IOException {
+      
+      // order of request made
+      int order = 1;
+      
+      if (resume && checkpoint.load()) {
+         runways = new RunwaySchedule(checkpoint.runways);
+         order = checkpoint.order;
+         // offer in order of request so FIFO engines keep their order
+         Flight[] flights = checkpoint.flights;
+         Arrays.sort(flights, (a, b) -> Integer.compare(a.order, b.order));
+         for (Flight flight : flights) {
+            minHeap.offer(flight);
+         }
+         input.seek(checkpoint.inputOffset);
+      }
+      
+      // process every flight request from file, saving a checkpoint
+      // after every interval records
+      long records = 0;
+      while (input.next()) {
+         order = scheduleRecord(minHeap, input, output, runways, order);
+         records++;
+         if (records % checkpoint.interval == 0) {
+            output.flush();
+            checkpoint.save(minHeap, order, runways, input.offset());
+         }
+      }
+      
+      // clear any backlog of unreleased flights
+      while (!minHeap.isEmpty()) {
+         releaseNext(minHeap, runways, output);
+      }
+      checkpoint.delete();
+   }
+   
+   // process the current record of full prioritization: release flights while
+   // a runway is free before its time, then queue, cancel or re-prioritize
+   // its flight, return the order number for the next takeoff request
+   public static int scheduleRecord(FlightQueue minHeap, RequestSource input, DepartureRecorder output,
+         RunwaySchedule runways, int order) throws IOException {
+      int requestTime = input.requestTime();
+      
+      // release flights while time permits (i.e. a runway is empty)
+      advanceClock(minHeap, runways, requestTime, output);
+      
+      switch (input.recordType()) {
+      
+         // "<name> cancels takeoff <time>"
+         case CANCEL_REQUEST :      indexed(minHeap).cancel(input.name());
+                                    break;
          
-         // while time permits (i.e. runway is empty)
-         while (requestTime > currentTime) {       
-            
-            // relase flights for takeoff from the heap, update current time
-            if (minHeap.length > 1) {
-               currentTime = releaseFlight(minHeap[1], currentTime);
-               minHeap = removeFromHeap(minHeap);              
-            
-            // heap is empty, update current time only
-            } else {
-               currentTime = requestTime;
-            }                       
-         }       
+         // "<name> updates passengers <time> <count>"
+         // (an emergency flight stays one)
+         case UPDATE_REQUEST :      indexed(minHeap).updatePriority(input.name(),
+                                       -input.passengerCount()); // negate for sorting
+                                    break;
+         
+         // "<name> declares emergency <time>"
+         case EMERGENCY_REQUEST :   indexed(minHeap).declareEmergency(input.name());
+                                    break;
          
          // add new flight request to heap
-         minHeap = addToHeap(minHeap, flight);
+         default :                  int passengerCount = input.passengerCount();
+                                    offerFlight(minHeap, input.name(), order, -passengerCount, // negate for sorting
+                                       requestTime);
+                                    SchedulerMetrics.requested(1, minHeap.size());
+                                    order++;
+                                    break;
+      }
+      return order;
+   }
+   
+   // release flights for takeoff from the heap onto the earliest free runway
+   // until every runway is busy at the given request time, a runway found
+   // idle with an empty heap waits until the request time
+   public static void advanceClock(FlightQueue minHeap, RunwaySchedule runways, int requestTime,
+         DepartureRecorder output) throws IOException {
+      while (requestTime > runways.nextFreeTime()) {
          
-         order++;    
+         // relase flights for takeoff from the heap, update runway free time
+         if (!minHeap.isEmpty()) {
+            releaseNext(minHeap, runways, output);
+         
+         // heap is empty, update runway free time only
+         } else {
+            runways.occupyNext(requestTime);
+         }
       }
-      
-      // clear any backlog of unreleased flights
-      while (minHeap.length > 1) {
-            currentTime = releaseFlight(minHeap[1], currentTime);
-            minHeap = removeFromHeap(minHeap);
+   }
+   
+   // return the given queue as an IndexedFlightQueue, throw an
+   // IllegalArgumentException if it does not support indexed operations
+   public static IndexedFlightQueue indexed(FlightQueue minHeap) {
+      if (!(minHeap instanceof IndexedFlightQueue)) {
+         throw new IllegalArgumentException("cancel/update records need an indexed heap");
+      }
+      return (IndexedFlightQueue)minHeap;
+   }
+   
+   // add a flight to the queue given its name, order number, value for
+   // comparison and request time, a packed heap takes it through its
+   // primitive API so that no Flight object is made
+   public static void offerFlight(FlightQueue minHeap, String name, int order, int val,
+         int requestTime) {
+      if (minHeap instanceof PackedFlightHeap) {
+         ((PackedFlightHeap)minHeap).offer(name, order, val, requestTime);
+      } else {
+         Flight flight = new Flight(name, order, val);
+         flight.requestTime = requestTime;
+         minHeap.offer(flight);
+      }
+   }
+   
+   // return the given queue as a PackedFlightHeap, null if it is another engine
+   public static PackedFlightHeap packed(FlightQueue minHeap) {
+      return minHeap instanceof PackedFlightHeap ? (PackedFlightHeap)minHeap : null;
+   }
+   
+   // release the flight at top of the queue (which must not be empty) as
+   // releaseFlight does, read through the primitive API of a packed heap,
+   // return departure time
+   public static int releaseNext(FlightQueue minHeap, RunwaySchedule runways, DepartureRecorder output)
+         throws IOException {
+      PackedFlightHeap packed = packed(minHeap);
+      if (packed == null) {
+         return releaseFlight(minHeap.poll(), runways, output);
       }
+      int id = packed.peekId();
+      int departureTime = releaseFlight(packed.nameOf(id), keyVal(packed.peekKey()),
+         packed.requestTimeOf(id), runways, output);
+      packed.pollId();
+      return departureTime;
+   }
+   
+   // release a flight for takeoff from the earliest free runway by writing
+   // flight name, departure time (time of completion of takeoff roll) and
+   // runway number (when there is more than one runway), return departure time
+   public static int releaseFlight(Flight flight, RunwaySchedule runways, DepartureRecorder output)
+         throws IOException {
+      return releaseFlight(flight.name, flight.val, flight.requestTime, runways, output);
    }
    
-   // release a flight for takeoff by printing flight name and departure time,
-   // return departure time (time of completion of takeoff roll)
-   public static int releaseFlight(Flight flight, int currentTime) {
-      int departureTime = currentTime + timeToTakeOff(-flight.val); // negate for printing
-      System.out.printf("%s departed at %s\n", flight.name, timeToString(departureTime));
+   // release a flight given its name, value for comparison and request time
+   // as above, return departure time
+   public static int releaseFlight(String name, int val, int requestTime, RunwaySchedule runways,
+         DepartureRecorder output) throws IOException {
+      int takeOffTime = timeToTakeOff(passengerCount(val));
+      int departureTime = runways.nextFreeTime() + takeOffTime;
+      SchedulerMetrics.departed(runways.nextFreeTime() - requestTime, takeOffTime);
+      if (runways.size() == 1) {
+         output.departure(name, departureTime);
+      } else {
+         output.departure(name, departureTime, runways.nextFreeRunway());
+      }
+      runways.occupyNext(departureTime);
       return departureTime;
    }
    
+   // return passenger count of a flight queued with full prioritization,
+   // i.e. its negated value
+   public static int passengerCount(Flight flight) {
+      return passengerCount(flight.val);
+   }
+   
+   // return passenger count given the value for comparison of a flight
+   // queued with full prioritization
+   public static int passengerCount(int val) {
+      return -val;
+   }
+   
    // return time duration of takeoff (in minutes) based on number of passengers
    public static int timeToTakeOff(int passengerCount) {
       return (passengerCount / 2 / 60) + (int)Math.ceil((double)(passengerCount / 2 % 60) / 60);
@@ -194,85 +2668,6 @@ public class TakeoffQueue {
       }     
    }
    
-   // add one flight to minHeap, return pointer to minHeap
-   public static Flight[] addToHeap(Flight[] minHeap, Flight flight) {
-      
-      // enlarge heap by 1 slot
-      minHeap = Arrays.copyOf(minHeap, minHeap.length + 1);     
-      // place new flight at end of heap
-      minHeap[minHeap.length - 1] = flight;
-      
-      // percolate up if value of parent is greater than child,
-      // if values are the same, order number will be compared
-      int i = minHeap.length - 1;
-      while (hasParent(i) && ((flight.val < minHeap[parent(i)].val) || 
-         (flight.val == minHeap[parent(i)].val && flight.order < minHeap[parent(i)].order))) {
-         int parent = parent(i);
-         swapElement(minHeap, parent, i);
-         i = parent;
-      }
-      
-      return minHeap;
-   }
-   
-   // remove a flight from top of minHeap, return pointer to minHeap
-   public static Flight[] removeFromHeap(Flight[] minHeap) {
-      
-      // replace first flight with last
-      minHeap[1] = minHeap[minHeap.length - 1];
-      // trim the heap (remove last flight)
-      minHeap = Arrays.copyOfRange(minHeap, 0, minHeap.length - 1);
-         
-      // percolate down if value of child is less than parent,
-      // if values are the same, order number will be compared
-      int i = 1;
-      int child = smallerChild(minHeap, i);
-      while (child != -1 && ((minHeap[child].val < minHeap[i].val) ||
-         (minHeap[child].val == minHeap[i].val && minHeap[child].order < minHeap[i].order))) {
-         swapElement(minHeap, child, i);
-         i = child;
-         child = smallerChild(minHeap, i);
-      } 
-      
-      return minHeap;
-   }
-   
-   // given index of an element in the minHeap, return index
-   // of the smaller child, return -1 if it has no children
-   public static int smallerChild(Flight[] minHeap, int i) {
-      
-      // have two children
-      if (leftChild(i) < minHeap.length && rightChild(i) < minHeap.length) {
-         
-         // left child is smaller
-         if (minHeap[leftChild(i)].val < minHeap[rightChild(i)].val) {
-            return leftChild(i);
-            
-         // right child is smaller
-         } else if (minHeap[rightChild(i)].val < minHeap[leftChild(i)].val) {
-            return rightChild(i);
-            
-         // children are equal, return children with lower order number
-         } else if (minHeap[leftChild(i)].order < minHeap[rightChild(i)].order) {
-            return leftChild(i);
-         } else {
-            return rightChild(i);
-         }
-      
-      // have left child
-      } else if (leftChild(i) < minHeap.length) {
-         return leftChild(i);
-      
-      // have right child
-      } else if (rightChild(i) < minHeap.length) {
-         return rightChild(i);
-      
-      // have no children
-      } else {
-         return -1;
-      }   
-   }
-   
    // given index of an element in heap, return index of left child
    public static int leftChild(int i) {
       return 2 * i;
@@ -292,12 +2687,5 @@ public class TakeoffQueue {
    public static int parent(int i) {
       return i / 2;
    }
-   
-   // swap two elements in the minHeap given their indices
-   public static void swapElement(Flight[] minHeap, int i, int j) {
-      Flight temp = minHeap[i];
-      minHeap[i] = minHeap[j];
-      minHeap[j] = temp;
-   }
 
 }
\ No newline at end of file